@@ -1,6 +1,7 @@
 package decorator.documentos;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * Contestar a continuación las siguientes preguntas:
@@ -53,6 +54,8 @@ public class DocumentProcessor {
     
     // Ejecutar procesamiento
     procesador.procesar(Arrays.asList(texto, imagen));
+    // Para fuentes sin límite conviene el modo streaming, que procesa de a lotes:
+    // procesador.procesar(Stream.of(texto, imagen), 1000);
     
     // Usar API externa de almacenamiento
     CloudStorageAPI cloudAPI = new CloudStorageAPI();
@@ -247,12 +250,53 @@ public class DocumentProcessor {
       }
       
       // String formato = formateador.formatear(documentos);
-      String formato = formateador.formatear(procesados);
+      emitirLote(procesados);
+    }
+
+    /*  Modo streaming: los documentos se consumen de a lotes de tamaño fijo.
+        Cada lote se formatea y se notifica apenas se completa, y el buffer
+        se reutiliza, así la memoria queda acotada por tamañoLote sin importar
+        cuántos documentos lleguen. Los listeners no deben retener la lista
+        que reciben, porque se vacía al pasar al lote siguiente. */
+    public void procesar(Stream<Documento> documentos, int tamañoLote) {
+      procesar(documentos.iterator(), tamañoLote);
+    }
+
+    public void procesar(Iterator<Documento> documentos, int tamañoLote) {
+      if (tamañoLote <= 0) {
+        throw new IllegalArgumentException("El tamaño de lote debe ser positivo: " + tamañoLote);
+      }
+      if (formateador == null) {
+        System.out.println("No hay formateador configurado.");
+        return;
+      }
+
+      System.out.println("=== PROCESANDO DOCUMENTOS (STREAMING) ===");
+
+      List<Documento> lote = new ArrayList<>(tamañoLote);
+      while (documentos.hasNext()) {
+        Documento doc = documentos.next();
+        System.out.println("Procesando: " + doc);
+        lote.add(aplicarTransformaciones(doc));
+
+        if (lote.size() == tamañoLote) {
+          emitirLote(lote);
+          lote.clear();
+        }
+      }
+
+      if (!lote.isEmpty()) {
+        emitirLote(lote);
+      }
+    }
+
+    private void emitirLote(List<Documento> lote) {
+      String formato = formateador.formatear(lote);
 
       System.out.println("Formato de salida: " + formato);
       
       // notifyProcessCompleted(documentos, formato);
-      notifyProcessCompleted(procesados, formato);
+      notifyProcessCompleted(lote, formato);
     }
 
     private Documento aplicarTransformaciones(Documento doc){
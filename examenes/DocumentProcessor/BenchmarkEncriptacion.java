@@ -0,0 +1,62 @@
+package examenes.DocumentProcessor;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.Documento;
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.DocumentoImagen;
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.EncriptadorAES;
+
+/*  Mide cuántos MB/s cifra EncriptadorAES, en total y por núcleo.
+    Cada hilo cifra el mismo documento una y otra vez contra un canal que
+    descarta la salida, así se mide solo el costo de cifrar.
+    Uso: java examenes.DocumentProcessor.BenchmarkEncriptacion [hilos] [MB por hilo] */
+public class BenchmarkEncriptacion {
+
+  public static void main(String[] args) throws Exception {
+    int hilos = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    int mbPorHilo = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+
+    byte[] datos = new byte[8 * 1024 * 1024];
+    new Random(42).nextBytes(datos);
+    Documento documento = new DocumentoImagen("benchmark.bin", datos);
+    EncriptadorAES encriptador = EncriptadorAES.conClaveAleatoria();
+    int repeticiones = Math.max(1, mbPorHilo * 1024 * 1024 / datos.length);
+
+    // Calentamiento para que el JIT compile el camino caliente (y AES-NI entre en juego)
+    correr(encriptador, documento, hilos, Math.max(1, repeticiones / 4));
+
+    long inicio = System.nanoTime();
+    correr(encriptador, documento, hilos, repeticiones);
+    double segundos = (System.nanoTime() - inicio) / 1_000_000_000.0;
+
+    double mb = (double) hilos * repeticiones * datos.length / (1024 * 1024);
+    System.out.printf("[AES-GCM] %d hilos, %.0f MB en %.2f s: %.1f MB/s en total, %.1f MB/s por núcleo%n",
+        hilos, mb, segundos, mb / segundos, mb / segundos / hilos);
+  }
+
+  private static void correr(EncriptadorAES encriptador, Documento documento, int hilos, int repeticiones)
+      throws Exception {
+    ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+    try {
+      List<Future<?>> pendientes = new ArrayList<>(hilos);
+      for (int i = 0; i < hilos; i++) {
+        pendientes.add(ejecutor.submit(() -> {
+          WritableByteChannel descarte = new CanalDescarte();
+          for (int r = 0; r < repeticiones; r++) {
+            encriptador.cifrar(documento, descarte);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> pendiente : pendientes) {
+        pendiente.get();
+      }
+    } finally {
+      ejecutor.shutdown();
+    }
+  }
+}
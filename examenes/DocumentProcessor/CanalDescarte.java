@@ -0,0 +1,25 @@
+package examenes.DocumentProcessor;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/*  Canal que descarta todo lo que recibe, para que los benchmarks midan
+    solo el costo de producir la salida. Lo comparten BenchmarkEncriptacion
+    y los benchmarks JMH de jmh/. */
+final class CanalDescarte implements WritableByteChannel {
+  @Override
+  public int write(ByteBuffer origen) {
+    int largo = origen.remaining();
+    origen.position(origen.limit());
+    return largo;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  @Override
+  public void close() {
+  }
+}
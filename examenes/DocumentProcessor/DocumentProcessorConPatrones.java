@@ -1,6 +1,55 @@
 package examenes.DocumentProcessor;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class DocumentProcessorConPatrones {
 
@@ -9,6 +58,12 @@ public class DocumentProcessorConPatrones {
     Documento texto = new DocumentoTexto("Reporte Mensual", "Este es el contenido del reporte...");
     Documento imagen = new DocumentoImagen("grafico.png", 1024);
     
+    // Mostrar también el detalle por documento (en producción: INFO y un SumideroAsincrono)
+    Traza.configurar(NivelTraza.DEPURACION, Traza.CONSOLA);
+
+    // Adapter que sube a la nube los documentos ya procesados
+    SubidorNubeAdapter subidor = new SubidorNubeAdapter(new CloudStorageAPI());
+
     // Crear procesador de documentos usando Builder
     // TODO: Debug todo el proceso de builder p/ entender bien lo que hace
     ProcesadorDocumentos procesador = new ProcesadorDocumentosBuilder()
@@ -17,22 +72,28 @@ public class DocumentProcessorConPatrones {
       .conMarcaDeAgua()
       .agregarListener(new LoggerListener())
       .agregarListener(new MetricsListener())
+      .agregarListener(subidor)
       .conFormateador("htML")
+      // .conEjecucionParalela(4)
       .build();
     
     // Ejecutar procesamiento
     procesador.procesar(Arrays.asList(texto, imagen));
+    // Para fuentes sin límite conviene el modo streaming, que procesa de a lotes:
+    // procesador.procesar(Stream.of(texto, imagen), 1000);
+    // Y para fuentes que empujan (p. ej. una cola), la etapa Flow con contrapresión:
+    // fuente.subscribe(procesador.etapaReactiva(1024, 100, 50, 16));
     
-    // Usar API externa de almacenamiento
-    CloudStorageAPI cloudAPI = new CloudStorageAPI();
-    boolean uploaded = cloudAPI.uploadFile("documento_procesado.pdf", "contenido_binario");
-    System.out.println("Subida a cloud: " + (uploaded ? "exitosa" : "fallida"));
+    // Esperar a que terminen las subidas a la API externa de almacenamiento
+    procesador.cerrar();
+    subidor.cerrar();
+    System.out.println("Subida a cloud: " + subidor.getExitosas() + " exitosas, " + subidor.getFallidas() + " fallidas");
   }
 
   // ===================== Dominio =====================
 
   // BASE P/ DECORATOR
-  abstract static class Documento {
+  public abstract static class Documento {
     protected final String nombre;
     
     public Documento(String nombre) {
@@ -44,7 +105,29 @@ public class DocumentProcessorConPatrones {
     }
     
     public abstract String getTipo();
-    public abstract int getTamaño();
+    public abstract long getTamaño();
+
+    /*  Contenido real del documento en un solo buffer, o null si no lo hay
+        o no entra en uno (contenido generado al vuelo, archivos de más de
+        2 GB). Cada llamada devuelve una vista nueva, con su propia posición. */
+    public ByteBuffer getContenidoBinario() {
+      return null;
+    }
+
+    // true si el documento trae contenido real, aunque no entre en un solo buffer
+    public boolean tieneContenido() {
+      return getContenidoBinario() != null;
+    }
+
+    // Escribe el contenido (ya transformado, en los decorators) en el canal
+    public void escribirContenido(WritableByteChannel destino) throws IOException {
+      ByteBuffer contenido = getContenidoBinario();
+      if (contenido != null) {
+        while (contenido.hasRemaining()) {
+          destino.write(contenido);
+        }
+      }
+    }
     
     @Override
     public String toString() {
@@ -52,16 +135,29 @@ public class DocumentProcessorConPatrones {
     }
   }
 
+  /*  El contenido se guarda una sola vez como bytes UTF-8: el tamaño es el
+      real en bytes (no la cantidad de caracteres), las transformaciones leen
+      los bytes sin volver a codificar, y el String solo se arma cuando
+      alguien lo pide con getContenido(). */
   static class DocumentoTexto extends Documento {
-    private final String contenido;
+    private static final byte[] VACIO = new byte[0];
+
+    private final byte[] contenidoUtf8;
     
     public DocumentoTexto(String nombre, String contenido) {
       super(nombre);
-      this.contenido = contenido;
+      this.contenidoUtf8 = contenido != null ? contenido.getBytes(StandardCharsets.UTF_8) : VACIO;
+    }
+
+    // Para fuentes que ya traen el texto en UTF-8: el arreglo no se copia, no debe modificarse después
+    public DocumentoTexto(String nombre, byte[] contenidoUtf8) {
+      super(nombre);
+      this.contenidoUtf8 = contenidoUtf8;
     }
     
+    // Decodifica en cada llamada; no se guarda para no duplicar el contenido en memoria
     public String getContenido() {
-      return contenido;
+      return new String(contenidoUtf8, StandardCharsets.UTF_8);
     }
     
     @Override
@@ -70,17 +166,35 @@ public class DocumentProcessorConPatrones {
     }
     
     @Override
-    public int getTamaño() {
-      return contenido != null ? contenido.length() : 0;
+    public long getTamaño() {
+      return contenidoUtf8.length;
+    }
+
+    @Override
+    public boolean tieneContenido() {
+      return true;
+    }
+
+    @Override
+    public ByteBuffer getContenidoBinario() {
+      return ByteBuffer.wrap(contenidoUtf8).asReadOnlyBuffer();
     }
   }
 
   static class DocumentoImagen extends Documento {
-    private final int tamaño;
+    private final long tamaño;
+    private final byte[] datos; // null si solo se conoce el tamaño
     
-    public DocumentoImagen(String nombre, int tamaño) {
+    public DocumentoImagen(String nombre, long tamaño) {
       super(nombre);
       this.tamaño = tamaño;
+      this.datos = null;
+    }
+
+    public DocumentoImagen(String nombre, byte[] datos) {
+      super(nombre);
+      this.tamaño = datos.length;
+      this.datos = datos;
     }
     
     @Override
@@ -89,9 +203,80 @@ public class DocumentProcessorConPatrones {
     }
     
     @Override
-    public int getTamaño() {
+    public long getTamaño() {
+      return tamaño;
+    }
+
+    @Override
+    public ByteBuffer getContenidoBinario() {
+      return datos != null ? ByteBuffer.wrap(datos).asReadOnlyBuffer() : null;
+    }
+
+    @Override
+    public boolean tieneContenido() {
+      return datos != null;
+    }
+  }
+
+  /*  Imagen respaldada por un archivo: los bytes no se copian al heap, se
+      leen del archivo mapeado en memoria. Un MappedByteBuffer no puede
+      pasar de 2 GB, así que los archivos grandes se recorren por regiones. */
+  static class DocumentoImagenArchivo extends Documento {
+    static final long REGION = 1L << 30; // 1 GB por mapeo
+
+    private final Path ruta;
+    private final long tamaño;
+
+    public DocumentoImagenArchivo(Path ruta) throws IOException {
+      this(ruta.getFileName().toString(), ruta);
+    }
+
+    public DocumentoImagenArchivo(String nombre, Path ruta) throws IOException {
+      super(nombre);
+      this.ruta = ruta;
+      this.tamaño = Files.size(ruta);
+    }
+
+    @Override
+    public String getTipo() {
+      return "IMAGEN";
+    }
+
+    @Override
+    public long getTamaño() {
       return tamaño;
     }
+
+    @Override
+    public boolean tieneContenido() {
+      return true;
+    }
+
+    @Override
+    public ByteBuffer getContenidoBinario() {
+      if (tamaño > REGION) {
+        return null; // usar escribirContenido, que recorre el archivo por regiones
+      }
+      try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+        // El mapeo sigue siendo válido después de cerrar el canal
+        return canal.map(FileChannel.MapMode.READ_ONLY, 0, tamaño);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public void escribirContenido(WritableByteChannel destino) throws IOException {
+      try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+        for (long posicion = 0; posicion < tamaño; posicion += REGION) {
+          MappedByteBuffer region = canal.map(FileChannel.MapMode.READ_ONLY, posicion,
+              Math.min(REGION, tamaño - posicion));
+          while (region.hasRemaining()) {
+            destino.write(region);
+          }
+        }
+      }
+    }
   }
 
   // DECORATORS
@@ -109,264 +294,2912 @@ public class DocumentProcessorConPatrones {
     }
 
     @Override
-    public int getTamaño(){
+    public long getTamaño(){
         return this.documento.getTamaño();
     }
+
+    @Override
+    public ByteBuffer getContenidoBinario(){
+        return this.documento.getContenidoBinario();
+    }
+
+    @Override
+    public boolean tieneContenido(){
+        return this.documento.tieneContenido();
+    }
+
+    @Override
+    public void escribirContenido(WritableByteChannel destino) throws IOException {
+        this.documento.escribirContenido(destino);
+    }
   }
 
+  /*  Comprime de verdad el contenido con Deflate. Si el documento no trae
+      contenido real (p. ej. una imagen de la que solo sabemos el tamaño),
+      se usa la estimación de FACTOR. */
   static class DocumentoCompresion extends DocumentDecorator {
+    static final double FACTOR = 0.8; // estimación: reduce tamaño en 20%
+
+    private final CompresorDeflate compresor;
+    private volatile long tamaño = -1; // se calcula la primera vez que se pide
+    private long nanosCompresion;
+
     public DocumentoCompresion(Documento documento){
+        this(documento, NivelCompresion.EQUILIBRADA);
+    }
+
+    public DocumentoCompresion(Documento documento, NivelCompresion nivel){
         super(documento);
+        this.compresor = CompresorDeflate.de(nivel);
+    }
+
+    @Override
+    public long getTamaño(){
+        if (tamaño < 0) {
+            long inicio = System.nanoTime();
+            tamaño = compresor.tamañoComprimido(this.documento);
+            nanosCompresion = System.nanoTime() - inicio;
+        }
+        return tamaño;
+    }
+
+    public long getNanosCompresion(){
+        getTamaño();
+        return nanosCompresion;
+    }
+
+    // El contenido comprimido no se guarda: se vuelve a generar al escribirlo
+    @Override
+    public ByteBuffer getContenidoBinario(){
+        return null;
     }
+
     @Override
-    public int getTamaño(){
-        return (int) (this.documento.getTamaño() * 0.8);
+    public void escribirContenido(WritableByteChannel destino) throws IOException {
+        compresor.escribirComprimido(this.documento, destino);
     }
   }
 
+  /*  Encripta el contenido con AES-GCM en bloques de tamaño fijo
+      (ver EncriptadorAES). El tamaño resultante se calcula sin encriptar:
+      es el original más el IV y el tag de cada bloque. */
   static class DocumentoEncriptado extends DocumentDecorator {
+    private final EncriptadorAES encriptador;
+
     public DocumentoEncriptado(Documento documento){
+        this(documento, EncriptadorAES.conClaveAleatoria());
+    }
+
+    public DocumentoEncriptado(Documento documento, EncriptadorAES encriptador){
         super(documento);
+        this.encriptador = encriptador;
+    }
+
+    @Override
+    public long getTamaño(){
+        return encriptador.tamañoCifrado(this.documento.getTamaño());
+    }
+
+    @Override
+    public ByteBuffer getContenidoBinario(){
+        return null;
     }
 
     @Override
-    public int getTamaño(){
-        return this.documento.getTamaño() + 256;
+    public void escribirContenido(WritableByteChannel destino) throws IOException {
+        encriptador.cifrar(this.documento, destino);
     }
   }
 
   static class DocumentoMarcaDeAgua extends DocumentDecorator {
+    static final int OVERHEAD = 100;
+
     public DocumentoMarcaDeAgua(Documento documento){
         super(documento);
     }
 
     @Override
-    public int getTamaño(){
-        return this.documento.getTamaño() + 100;
+    public long getTamaño(){
+        return this.documento.getTamaño() + OVERHEAD;
     }
   }
 
-  // ===================== PROCESADOR =====================
+  enum NivelCompresion {
+    RAPIDA(Deflater.BEST_SPEED),
+    EQUILIBRADA(Deflater.DEFAULT_COMPRESSION),
+    MAXIMA(Deflater.BEST_COMPRESSION);
 
-  interface DocumentProcessListener {
-    void onProcessCompleted(List<Documento> documentos, String formato);
-  }
+    private final int nivelDeflater;
 
-  static class LoggerListener implements DocumentProcessListener {
-    @Override
-    public void onProcessCompleted(List<Documento> documentos, String formato) {
-      System.out.println("[Logger] Procesamiento completado. Documentos: " + documentos.size() + 
-                        ", Formato: " + formato);
+    NivelCompresion(int nivelDeflater) {
+      this.nivelDeflater = nivelDeflater;
     }
   }
 
-  static class MetricsListener implements DocumentProcessListener {
-    @Override
-    public void onProcessCompleted(List<Documento> documentos, String formato) {
-      int totalSize = documentos.stream().mapToInt(Documento::getTamaño).sum();
-      System.out.println("[Metrics] Tamaño total procesado: " + totalSize + " bytes");
-    }
-  }
+  /*  Compresión Deflate por bloques. Cada Deflater (crear uno reserva
+      memoria nativa) y su buffer de salida van juntos en unos Recursos que
+      se reutilizan desde un pool por nivel: cada comprimir toma los suyos y
+      los devuelve al terminar, así comprimir no genera basura por documento.
+      Es seguro usarlo desde varios hilos a la vez. */
+  static final class CompresorDeflate {
+    private static final int BLOQUE = 64 * 1024;
+    private static final int MAX_EN_POOL = Runtime.getRuntime().availableProcessors() * 2;
+    private static final Map<NivelCompresion, CompresorDeflate> POR_NIVEL = new EnumMap<>(NivelCompresion.class);
 
-  /*  Esta clase es el centro de todo.
-      Recibe documentos y aplica transformaciones,
-      formateo y notifica a listeners */
-  static class ProcesadorDocumentos  {
-    private final List<DocumentProcessListener> listeners = new ArrayList<>();
-    private FormateadorDocumento formateador;
-    
-    // Transformaciones modeladas con flags
-    private boolean compresion; // reduce tamaño en 20%
-    private boolean encriptacion; // agrega overhead de seguridad
-    private boolean marcaDeAgua; // agrega marca visual
-    
-    public void addListener(DocumentProcessListener listener) {
-      listeners.add(listener);
+    static {
+      for (NivelCompresion nivel : NivelCompresion.values()) {
+        POR_NIVEL.put(nivel, new CompresorDeflate(nivel));
+      }
     }
-    
-    public void setFormateador(FormateadorDocumento formateador) {
-      this.formateador = formateador;
+
+    private final NivelCompresion nivel;
+    // Cada Deflater va del pool junto con su buffer de salida: un canal es dueño de ambos hasta terminar
+    private final BlockingQueue<Recursos> pool = new ArrayBlockingQueue<>(MAX_EN_POOL);
+
+    private CompresorDeflate(NivelCompresion nivel) {
+      this.nivel = nivel;
     }
-    
-    public void aplicarCompresion(boolean compresion) {
-      this.compresion = compresion;
+
+    static CompresorDeflate de(NivelCompresion nivel) {
+      return POR_NIVEL.get(nivel);
     }
-    
-    public void aplicarEncriptacion(boolean encriptacion) {
-      this.encriptacion = encriptacion;
+
+    NivelCompresion getNivel() {
+      return nivel;
     }
-    
-    public void aplicarMarcaDeAgua(boolean marcaDeAgua) {
-      this.marcaDeAgua = marcaDeAgua;
+
+    long tamañoComprimido(Documento documento) {
+      if (!documento.tieneContenido()) {
+        return (long) (documento.getTamaño() * DocumentoCompresion.FACTOR);
+      }
+      try {
+        return comprimir(documento, null);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
     }
-    
-    public void procesar(List<Documento> documentos) {
-      if (formateador == null) {
-        System.out.println("No hay formateador configurado.");
-        return;
+
+    void escribirComprimido(Documento documento, WritableByteChannel destino) throws IOException {
+      if (documento.tieneContenido()) {
+        comprimir(documento, destino);
       }
-      
-      System.out.println("=== PROCESANDO DOCUMENTOS ===");
-      
-        
-      List<Documento> procesados = new ArrayList<>();
-      for (Documento doc : documentos) {
-        System.out.println("Procesando: " + doc);
-        
-        // Aplicar transformaciones con Patrón Decorator
-        Documento docFinal = aplicarTransformaciones(doc); // Esta función maneja los decoradores
-        procesados.add(docFinal);
+    }
+
+    /*  El documento escribe su contenido en un canal que lo va comprimiendo,
+        así funciona igual con un arreglo en memoria que con un archivo
+        mapeado por regiones. Devuelve la cantidad de bytes comprimidos; con
+        destino null solo los cuenta. Como cada llamada toma sus propios
+        recursos, destino puede ser a su vez otro canal que comprime. */
+    long comprimir(Documento documento, WritableByteChannel destino) throws IOException {
+      Recursos recursos = tomar();
+      try {
+        CanalDeflate canal = new CanalDeflate(recursos.deflater, recursos.salida, destino);
+        documento.escribirContenido(canal);
+        return canal.terminar();
+      } finally {
+        devolver(recursos);
       }
-      
-      // String formato = formateador.formatear(documentos);
-      String formato = formateador.formatear(procesados);
+    }
 
-      System.out.println("Formato de salida: " + formato);
-      
-      // notifyProcessCompleted(documentos, formato);
-      notifyProcessCompleted(procesados, formato);
+    private static final class Recursos {
+      final Deflater deflater;
+      final ByteBuffer salida = ByteBuffer.allocateDirect(BLOQUE);
+
+      Recursos(Deflater deflater) {
+        this.deflater = deflater;
+      }
     }
 
-    private Documento aplicarTransformaciones(Documento doc){
-        /*
-         * Esta función determinará qué transformaciones se ejecutarán.
-         */
-        Documento docFinal = doc;
-        if (compresion) {
-            docFinal = new DocumentoCompresion(docFinal);
-            System.out.println("  - Compresión aplicada");
-          }
-          if (encriptacion) {
-              docFinal = new DocumentoEncriptado(docFinal);
-              System.out.println("  - Encriptación aplicada");
-          }
-          if (marcaDeAgua) {
-              docFinal = new DocumentoMarcaDeAgua(docFinal);
-              System.out.println("  - Marca de agua aplicada");
+    private static final class CanalDeflate implements WritableByteChannel {
+      private final Deflater deflater;
+      private final ByteBuffer salida;
+      private final WritableByteChannel destino;
+      private long total;
+
+      CanalDeflate(Deflater deflater, ByteBuffer salida, WritableByteChannel destino) {
+        this.deflater = deflater;
+        this.salida = salida;
+        this.destino = destino;
+      }
+
+      @Override
+      public int write(ByteBuffer entrada) throws IOException {
+        int escritos = entrada.remaining();
+        while (entrada.hasRemaining()) {
+          int largo = Math.min(BLOQUE, entrada.remaining());
+          ByteBuffer bloque = entrada.slice();
+          bloque.limit(largo);
+          deflater.setInput(bloque);
+          while (!deflater.needsInput()) {
+            total += vaciar(deflater, salida, destino);
           }
-          
-          System.out.println("  - Tamaño final: " + docFinal.getTamaño() + " bytes");
-          return docFinal;
+          entrada.position(entrada.position() + largo);
+        }
+        return escritos;
+      }
+
+      long terminar() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+          total += vaciar(deflater, salida, destino);
+        }
+        return total;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
     }
-    
-    private void notifyProcessCompleted(List<Documento> documentos, String formato) {
-      for (DocumentProcessListener listener : listeners) {
-        listener.onProcessCompleted(documentos, formato);
+
+    private static int vaciar(Deflater deflater, ByteBuffer salida, WritableByteChannel destino) throws IOException {
+      salida.clear();
+      int escritos = deflater.deflate(salida);
+      if (destino != null) {
+        salida.flip();
+        while (salida.hasRemaining()) {
+          destino.write(salida);
+        }
+      }
+      return escritos;
+    }
+
+    private Recursos tomar() {
+      Recursos recursos = pool.poll();
+      return recursos != null ? recursos : new Recursos(new Deflater(nivel.nivelDeflater));
+    }
+
+    private void devolver(Recursos recursos) {
+      recursos.deflater.reset();
+      if (!pool.offer(recursos)) {
+        recursos.deflater.end(); // pool lleno: liberar la memoria nativa
       }
     }
   }
 
-  static class ProcesadorDocumentosBuilder {
-    boolean compresion = false;
-    boolean encriptacion = false;
-    boolean marcaDeAgua = false;
-    String formato;
-    private final List<DocumentProcessListener> listeners = new ArrayList<>();
-    public ProcesadorDocumentosBuilder conCompresion(){
-        this.compresion = true;
-        return this;
+  /*  Encriptación AES-GCM por bloques: el contenido se parte en bloques de
+      BLOQUE bytes y cada uno se cifra por separado con su propio IV, así un
+      documento grande nunca tiene que estar entero en memoria. Cada bloque
+      sale como [IV][texto cifrado + tag]. El número de bloque y si es el
+      último van como datos autenticados, para detectar bloques reordenados
+      o truncados.
+      Cada documento sortea un nonce de 96 bits y el IV de cada bloque es
+      ese nonce con el número de bloque XOR en sus últimos 4 bytes. No hay
+      contador que dependa de la instancia, así que procesadores distintos
+      con la misma clave (uno por tenant, p. ej.) no comparten estado. Dos
+      documentos solo repiten IV si sus nonces coinciden en los primeros 8
+      bytes: por cumpleaños, recién hacia los 2^32 documentos por clave,
+      que es también el límite de NIST para IV aleatorios en GCM.
+      Cada canal toma del pool su Cipher y sus buffers y los devuelve al
+      terminar (o en liberar(), si algo falla a mitad), así una misma instancia se puede usar desde el ejecutor
+      paralelo del procesador y un canal puede escribir en otro canal. */
+  static final class EncriptadorAES {
+    static final int BLOQUE = 64 * 1024;
+    static final int LARGO_IV = 12;
+    static final int LARGO_TAG = 16;
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+    private static final BlockingQueue<Recursos> POOL =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final SecretKey clave;
+
+    public EncriptadorAES(SecretKey clave) {
+      this.clave = clave;
     }
 
-    public ProcesadorDocumentosBuilder conEncriptacion(){
-        this.encriptacion = true;
-        return this;
+    // Para poder descifrar lo que se cifró con una clave generada (conClaveAleatoria)
+    SecretKey getClave() {
+      return clave;
     }
 
-    public ProcesadorDocumentosBuilder conMarcaDeAgua(){
-        this.marcaDeAgua = true;
-        return this;
+    static EncriptadorAES conClaveAleatoria() {
+      try {
+        KeyGenerator generador = KeyGenerator.getInstance("AES");
+        generador.init(256, ALEATORIO);
+        return new EncriptadorAES(generador.generateKey());
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("AES no está disponible en esta JVM", e);
+      }
     }
 
-    public ProcesadorDocumentosBuilder conFormateador(String tipo){
-        this.formato = tipo;
-        return this;
+    private static Cipher nuevoCipher() {
+      try {
+        return Cipher.getInstance("AES/GCM/NoPadding");
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("AES/GCM no está disponible en esta JVM", e);
+      }
     }
 
-    public ProcesadorDocumentosBuilder agregarListener(DocumentProcessListener listener){
-      listeners.add(listener);
-      return this;
+    long tamañoCifrado(long largo) {
+      long bloques = Math.max(1, (largo + BLOQUE - 1) / BLOQUE);
+      return largo + bloques * (LARGO_IV + LARGO_TAG);
     }
 
-    public ProcesadorDocumentos build(){
-        ProcesadorDocumentos instancia = new ProcesadorDocumentos();
-        instancia.aplicarCompresion(compresion);
-        instancia.aplicarEncriptacion(encriptacion);
-        instancia.aplicarMarcaDeAgua(marcaDeAgua);
-        instancia.setFormateador(FormateadorFactory.crear(formato));
-        for (DocumentProcessListener listener : listeners) {
-          instancia.addListener(listener);
+    void cifrar(Documento documento, WritableByteChannel destino) throws IOException {
+      CanalCifrado canal = abrirCanal(destino);
+      try {
+        documento.escribirContenido(canal);
+        canal.terminar();
+      } finally {
+        canal.liberar();
+      }
+    }
+
+    /*  Canal que cifra lo que se le escribe y lo pasa a destino de a bloques.
+        Hay que llamar a terminar() (o close()) para que salga el último
+        bloque, y a liberar() en un finally para que los recursos vuelvan al
+        pool aunque la escritura falle. */
+    CanalCifrado abrirCanal(WritableByteChannel destino) {
+      byte[] nonce = new byte[LARGO_IV];
+      ALEATORIO.nextBytes(nonce);
+      Recursos recursos = POOL.poll();
+      return new CanalCifrado(destino, nonce, recursos != null ? recursos : new Recursos());
+    }
+
+    private static final class Recursos {
+      final Cipher cipher = nuevoCipher();
+      final ByteBuffer entrada = ByteBuffer.allocate(BLOQUE);
+      final ByteBuffer salida = ByteBuffer.allocate(LARGO_IV + BLOQUE + LARGO_TAG);
+    }
+
+    final class CanalCifrado implements WritableByteChannel {
+      private final WritableByteChannel destino;
+      private final byte[] nonce;
+      private final byte[] iv = new byte[LARGO_IV];
+      private final Recursos recursos;
+      private final ByteBuffer entrada;
+      private final ByteBuffer salida;
+      private int numeroBloque = 0;
+      private boolean abierto = true;
+      private boolean liberado;
+
+      private CanalCifrado(WritableByteChannel destino, byte[] nonce, Recursos recursos) {
+        this.destino = destino;
+        this.nonce = nonce;
+        this.recursos = recursos;
+        this.entrada = recursos.entrada;
+        this.salida = recursos.salida;
+        entrada.clear();
+      }
+
+      @Override
+      public int write(ByteBuffer origen) throws IOException {
+        int escritos = 0;
+        while (origen.hasRemaining()) {
+          // Un bloque lleno solo se cifra cuando llegan más datos: así el último
+          // bloque siempre sale marcado como tal en terminar()
+          if (!entrada.hasRemaining()) {
+            cifrarBloque(false);
+          }
+          int largo = Math.min(entrada.remaining(), origen.remaining());
+          ByteBuffer parte = origen.slice();
+          parte.limit(largo);
+          entrada.put(parte);
+          origen.position(origen.position() + largo);
+          escritos += largo;
+        }
+        return escritos;
+      }
+
+      void terminar() throws IOException {
+        try {
+          cifrarBloque(true);
+        } finally {
+          liberar();
+        }
+      }
+
+      // Devuelve el Cipher y los buffers al pool; se puede llamar más de una vez
+      void liberar() {
+        abierto = false;
+        if (!liberado) {
+          liberado = true;
+          POOL.offer(recursos);
+        }
+      }
+
+      private void cifrarBloque(boolean ultimo) throws IOException {
+        entrada.flip();
+        salida.clear();
+        System.arraycopy(nonce, 0, iv, 0, LARGO_IV);
+        iv[LARGO_IV - 4] ^= (byte) (numeroBloque >>> 24);
+        iv[LARGO_IV - 3] ^= (byte) (numeroBloque >>> 16);
+        iv[LARGO_IV - 2] ^= (byte) (numeroBloque >>> 8);
+        iv[LARGO_IV - 1] ^= (byte) numeroBloque;
+        salida.put(iv);
+        try {
+          Cipher cipher = recursos.cipher;
+          cipher.init(Cipher.ENCRYPT_MODE, clave, new GCMParameterSpec(LARGO_TAG * 8, iv));
+          cipher.updateAAD(new byte[] {
+              (byte) (numeroBloque >>> 24), (byte) (numeroBloque >>> 16),
+              (byte) (numeroBloque >>> 8), (byte) numeroBloque, (byte) (ultimo ? 1 : 0)});
+          cipher.doFinal(entrada, salida);
+        } catch (GeneralSecurityException e) {
+          throw new IOException("No se pudo cifrar el bloque " + numeroBloque, e);
         }
+        salida.flip();
+        while (salida.hasRemaining()) {
+          destino.write(salida);
+        }
+        entrada.clear();
+        numeroBloque++;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return abierto;
+      }
 
-        return instancia;
+      @Override
+      public void close() throws IOException {
+        if (abierto) {
+          terminar();
+        }
+      }
     }
   }
 
-  // ===================== FORMATEADORES =====================
-                        /* STRATEGY */
-  interface FormateadorDocumento {
-    String formatear(List<Documento> documentos);
-  }
+  /*  Envoltorio plano que produce el pipeline compilado: en lugar de anidar
+      hasta tres decorators, guarda el tamaño final ya calculado. */
+  static class DocumentoTransformado extends DocumentDecorator {
+    private final TransformacionCompilada transformacion;
+    private final long tamañoBase;
+    private final long tamaño;
+    private final long nanosCompresion;
+
+    public DocumentoTransformado(Documento documento, TransformacionCompilada transformacion){
+        super(documento);
+        this.transformacion = transformacion;
+        long inicio = System.nanoTime();
+        this.tamañoBase = transformacion.tamañoBase(documento);
+        this.nanosCompresion = transformacion.isCompresion() ? System.nanoTime() - inicio : 0;
+        this.tamaño = transformacion.tamañoFinal(tamañoBase);
+    }
+
+    // Con el tamaño base ya conocido (p. ej. desde la caché): no vuelve a comprimir
+    public DocumentoTransformado(Documento documento, TransformacionCompilada transformacion, long tamañoBase){
+        super(documento);
+        this.transformacion = transformacion;
+        this.tamañoBase = tamañoBase;
+        this.nanosCompresion = 0;
+        this.tamaño = transformacion.tamañoFinal(tamañoBase);
+    }
 
-  static class FormateadorPDF implements FormateadorDocumento {
     @Override
-    public String formatear(List<Documento> documentos) {
-      System.out.println("[PDF] Generando documento PDF con " + documentos.size() + " elementos");
-      return "PDF";
+    public long getTamaño(){
+        return tamaño;
+    }
+
+    public long getNanosCompresion(){
+        return nanosCompresion;
+    }
+
+    // Tamaño tras la compresión, antes de encriptar y marcar
+    public long getTamañoBase(){
+        return tamañoBase;
     }
-  }
 
-  static class FormateadorDOCX implements FormateadorDocumento {
     @Override
-    public String formatear(List<Documento> documentos) {
-      System.out.println("[DOCX] Generando documento Word con " + documentos.size() + " elementos");
-      return "DOCX";
+    public ByteBuffer getContenidoBinario(){
+        boolean transformaContenido = transformacion.isCompresion() || transformacion.isEncriptacion();
+        return transformaContenido ? null : this.documento.getContenidoBinario();
     }
-  }
 
-  static class FormateadorHTML implements FormateadorDocumento {
     @Override
-    public String formatear(List<Documento> documentos) {
-      System.out.println("[HTML] Generando página web con " + documentos.size() + " elementos");
-      return "HTML";
+    public void escribirContenido(WritableByteChannel destino) throws IOException {
+        transformacion.escribir(this.documento, destino);
     }
   }
 
-                        /* FACTORY */
-  static class FormateadorFactory {
-    public static FormateadorDocumento crear(String outputFormat){
-      // Usando switch expressions
-      FormateadorDocumento formateador = switch (outputFormat.toLowerCase()){
-        case "pdf" -> new FormateadorPDF();
-        case "docx" -> new FormateadorDOCX();
-        default -> new FormateadorHTML();
-      };
-      return formateador;
+  /*  Las transformaciones activas fusionadas en una sola función de tamaño:
+      primero la compresión (real, o estimada si no hay contenido), después
+      el overhead de encriptación (IV y tag por bloque) y por último la marca
+      de agua. Da el mismo resultado que la cadena de decorators en el orden
+      compresión → encriptación → marca de agua. */
+  static final class TransformacionCompilada {
+    private final CompresorDeflate compresor; // null = sin compresión
+    private final EncriptadorAES encriptador; // null = sin encriptación
+    private final boolean marcaDeAgua;
+    private final String[] pasos; // para el log de cada documento
 
-      /* Usando switch-case 
-      switch (outputFormat.toLowerCase()) {
-        case "pdf":
-          return new FormateadorPDF();
+    private TransformacionCompilada(CompresorDeflate compresor, EncriptadorAES encriptador, boolean marcaDeAgua,
+                                    String[] pasos) {
+      this.compresor = compresor;
+      this.encriptador = encriptador;
+      this.marcaDeAgua = marcaDeAgua;
+      this.pasos = pasos;
+    }
 
-        case "docx":
-          return new FormateadorDOCX();
-        
-          case "html":
-          return new FormateadorHTML();
-        
-          default:
-          return new FormateadorHTML();
+    // nivelCompresion / encriptador null = transformación desactivada
+    static TransformacionCompilada compilar(NivelCompresion nivelCompresion, EncriptadorAES encriptador,
+                                            boolean marcaDeAgua) {
+      CompresorDeflate compresor = null;
+      List<String> pasos = new ArrayList<>(3);
+      if (nivelCompresion != null) {
+        compresor = CompresorDeflate.de(nivelCompresion);
+        pasos.add("Compresión aplicada (" + nivelCompresion + ")");
+      }
+      if (encriptador != null) {
+        pasos.add("Encriptación aplicada (AES-GCM)");
+      }
+      if (marcaDeAgua) {
+        pasos.add("Marca de agua aplicada");
+      }
+      return new TransformacionCompilada(compresor, encriptador, marcaDeAgua, pasos.toArray(new String[0]));
+    }
+
+    // Tamaño después de la compresión, antes de encriptar y marcar
+    long tamañoBase(Documento documento) {
+      return compresor != null ? compresor.tamañoComprimido(documento) : documento.getTamaño();
+    }
+
+    long tamañoFinal(long tamañoBase) {
+      long tamaño = tamañoEncriptado(tamañoBase);
+      return marcaDeAgua ? tamaño + DocumentoMarcaDeAgua.OVERHEAD : tamaño;
+    }
+
+    long tamañoEncriptado(long tamañoBase) {
+      return encriptador != null ? encriptador.tamañoCifrado(tamañoBase) : tamañoBase;
+    }
+
+    // La marca de agua solo se modela en el tamaño, no en el contenido
+    void escribir(Documento original, WritableByteChannel destino) throws IOException {
+      if (encriptador == null) {
+        escribirSinCifrar(original, destino);
+        return;
+      }
+      EncriptadorAES.CanalCifrado canal = encriptador.abrirCanal(destino);
+      try {
+        escribirSinCifrar(original, canal);
+        canal.terminar();
+      } finally {
+        canal.liberar(); // si falló a mitad, el Cipher y los buffers vuelven igual al pool
+      }
+    }
+
+    private void escribirSinCifrar(Documento original, WritableByteChannel destino) throws IOException {
+      if (compresor != null) {
+        compresor.escribirComprimido(original, destino);
+      } else {
+        original.escribirContenido(destino);
+      }
+    }
+
+    EncriptadorAES getEncriptador() {
+      return encriptador;
+    }
+
+    NivelCompresion getNivelCompresion() {
+      return compresor != null ? compresor.getNivel() : null;
+    }
+
+    boolean esIdentidad() {
+      return pasos.length == 0;
+    }
+
+    String[] getPasos() {
+      return pasos;
+    }
+
+    boolean isCompresion() {
+      return compresor != null;
+    }
+
+    boolean isEncriptacion() {
+      return encriptador != null;
+    }
+
+    boolean isMarcaDeAgua() {
+      return marcaDeAgua;
+    }
+
+    /*  Misma salida formateada. La marca de agua no cambia los bytes del
+        contenido pero sí el tamaño, y los formateadores lo muestran, así que
+        también cuenta. */
+    boolean mismoContenido(TransformacionCompilada otra) {
+      return otra != null && compresor == otra.compresor && encriptador == otra.encriptador
+          && marcaDeAgua == otra.marcaDeAgua;
+    }
+  }
+
+  // ===================== CACHÉ =====================
+
+  /*  Caché LRU acotada de resultados de transformación, para no volver a
+      procesar documentos reenviados. La clave es un SHA-256 del tipo y el
+      contenido del documento más la transformación activa; el valor es el
+      tamaño después de comprimir, que es la parte cara. Un acierto arma el
+      envoltorio final directamente, sin pasar por aplicarTransformaciones.
+      Está partida en segmentos según el hash de la clave, cada uno con su
+      propio lock y su propio orden LRU, para que los hilos del ejecutor no
+      se frenen entre sí en cada documento. */
+  static final class CacheDeduplicacion {
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("SHA-256 no está disponible en esta JVM", e);
+      }
+    });
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+    private final Segmento[] segmentos;
+    private final int mascara;
+
+    CacheDeduplicacion(int capacidad) {
+      if (capacidad <= 0) {
+        throw new IllegalArgumentException("La capacidad de la caché debe ser positiva: " + capacidad);
+      }
+      // Potencia de 2 para elegir el segmento con una máscara; nunca más segmentos que entradas
+      int cantidad = Math.min(Integer.highestOneBit(capacidad),
+          Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+      this.segmentos = new Segmento[cantidad];
+      for (int i = 0; i < cantidad; i++) {
+        // El resto de la división se reparte entre los primeros segmentos
+        segmentos[i] = new Segmento(capacidad / cantidad + (i < capacidad % cantidad ? 1 : 0));
+      }
+      this.mascara = cantidad - 1;
+    }
+
+    private Segmento segmento(Clave clave) {
+      int hash = clave.hashCode();
+      return segmentos[(hash ^ (hash >>> 16)) & mascara];
+    }
+
+    static Clave clave(Documento documento, TransformacionCompilada transformacion) {
+      MessageDigest sha = SHA256.get();
+      sha.reset();
+      sha.update(documento.getTipo().getBytes(StandardCharsets.UTF_8));
+      if (documento.tieneContenido()) {
+        try {
+          documento.escribirContenido(new CanalDigest(sha));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      } else {
+        // Sin contenido real solo podemos identificarlo por nombre y tamaño
+        sha.update(documento.getNombre().getBytes(StandardCharsets.UTF_8));
+        sha.update(Long.toString(documento.getTamaño()).getBytes(StandardCharsets.UTF_8));
+      }
+      return new Clave(sha.digest(), transformacion);
+    }
+
+    // Devuelve el tamaño base guardado, o -1 si no está
+    long buscar(Clave clave) {
+      Long tamañoBase = segmento(clave).buscar(clave);
+      if (tamañoBase == null) {
+        fallos.increment();
+        return -1;
+      }
+      aciertos.increment();
+      return tamañoBase;
+    }
+
+    void guardar(Clave clave, long tamañoBase) {
+      segmento(clave).guardar(clave, tamañoBase);
+    }
+
+    long getAciertos() {
+      return aciertos.sum();
+    }
+
+    long getFallos() {
+      return fallos.sum();
+    }
+
+    long getDesalojos() {
+      return desalojos.sum();
+    }
+
+    void imprimir() {
+      if (!NivelTraza.INFO.activo()) {
+        return;
+      }
+      long total = getAciertos() + getFallos();
+      Traza.escribir(NivelTraza.INFO, String.format("[Cache] aciertos=%d, fallos=%d, desalojos=%d, tasa de aciertos=%.1f%%",
+          getAciertos(), getFallos(), getDesalojos(), total > 0 ? 100.0 * getAciertos() / total : 0));
+    }
+
+    private final class Segmento {
+      // accessOrder = true: el primero es siempre el menos usado recientemente
+      private final LinkedHashMap<Clave, Long> entradas;
+
+      Segmento(int capacidad) {
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Clave, Long> masViejo) {
+            boolean desalojar = size() > capacidad;
+            if (desalojar) {
+              desalojos.increment();
+            }
+            return desalojar;
+          }
+        };
+      }
+
+      synchronized Long buscar(Clave clave) {
+        return entradas.get(clave);
+      }
+
+      synchronized void guardar(Clave clave, long tamañoBase) {
+        entradas.put(clave, tamañoBase);
+      }
+    }
+
+    private static final class CanalDigest implements WritableByteChannel {
+      private final MessageDigest digest;
+
+      CanalDigest(MessageDigest digest) {
+        this.digest = digest;
+      }
+
+      @Override
+      public int write(ByteBuffer origen) {
+        int largo = origen.remaining();
+        digest.update(origen);
+        return largo;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    }
+
+    static final class Clave {
+      private final byte[] hash;
+      private final TransformacionCompilada transformacion;
+      private final int hashCode;
+
+      Clave(byte[] hash, TransformacionCompilada transformacion) {
+        this.hash = hash;
+        this.transformacion = transformacion;
+        this.hashCode = 31 * Arrays.hashCode(hash) + System.identityHashCode(transformacion);
+      }
+
+      @Override
+      public boolean equals(Object otro) {
+        if (!(otro instanceof Clave)) {
+          return false;
+        }
+        Clave clave = (Clave) otro;
+        return transformacion == clave.transformacion && Arrays.equals(hash, clave.hash);
+      }
+
+      @Override
+      public int hashCode() {
+        return hashCode;
+      }
+    }
+  }
+
+  // ===================== TRAZAS =====================
+
+  enum NivelTraza {
+    DEPURACION, // detalle por documento
+    INFO,       // resumen por lote
+    AVISO,      // errores recuperables
+    APAGADO;
+
+    // Lectura de un volatile y una comparación: es todo lo que cuesta una traza apagada
+    boolean activo() {
+      return ordinal() >= Traza.umbral.ordinal();
+    }
+  }
+
+  interface SumideroTraza {
+    void escribir(NivelTraza nivel, String mensaje);
+  }
+
+  /*  Punto único por el que pasan los mensajes del procesador y los
+      formateadores, en lugar de System.out. Los mensajes que necesitan
+      concatenar se escriben detrás de un if (nivel.activo()), así con el
+      nivel apagado no se arma ningún String ni se crea ningún objeto. */
+  static final class Traza {
+    static final SumideroTraza CONSOLA = (nivel, mensaje) -> System.out.println(mensaje);
+
+    private static volatile NivelTraza umbral = NivelTraza.INFO;
+    private static volatile SumideroTraza sumidero = CONSOLA;
+
+    private Traza() {}
+
+    static void configurar(NivelTraza nuevoUmbral, SumideroTraza nuevoSumidero) {
+      umbral = nuevoUmbral;
+      sumidero = nuevoSumidero;
+    }
+
+    // Para mensajes constantes; los que concatenan van protegidos por nivel.activo()
+    static void escribir(NivelTraza nivel, String mensaje) {
+      if (nivel.activo()) {
+        sumidero.escribir(nivel, mensaje);
+      }
+    }
+  }
+
+  /*  Sumidero asíncrono: el hilo que traza solo encola el mensaje (con su
+      nivel) en una cola acotada; un hilo aparte los saca de a lotes y los
+      escribe juntos en el sumidero destino, un bloque por tramo de mensajes
+      del mismo nivel. Sin mensajes, el hilo duerme en take; con alguno,
+      espera hasta ESPERA_LOTE_MILLIS a que se junte un lote, y el que
+      completa el lote lo despierta antes. Si la cola se llena, el mensaje
+      se descarta (y se cuenta) antes que frenar al procesador. */
+  static final class SumideroAsincrono implements SumideroTraza {
+    private static final int LOTE = 256;
+    private static final long ESPERA_LOTE_MILLIS = 20;
+
+    private final BlockingQueue<Mensaje> cola;
+    private final SumideroTraza destino;
+    private final LongAdder descartados = new LongAdder();
+    private final AtomicInteger pendientes = new AtomicInteger(); // sin lock, a diferencia de cola.size()
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition loteLleno = lock.newCondition();
+    private final Thread hilo;
+    private volatile boolean cerrado;
+
+    // Solo los usa el hilo que vacía
+    private final List<Mensaje> lote = new ArrayList<>(LOTE);
+    private final StringBuilder texto = new StringBuilder();
+
+    SumideroAsincrono(int capacidad, SumideroTraza destino) {
+      this.cola = new ArrayBlockingQueue<>(capacidad);
+      this.destino = destino;
+      this.hilo = new Thread(this::vaciar, "traza-asincrona");
+      this.hilo.setDaemon(true);
+      this.hilo.start();
+    }
+
+    @Override
+    public void escribir(NivelTraza nivel, String mensaje) {
+      if (!cola.offer(new Mensaje(nivel, mensaje))) {
+        descartados.increment();
+        return;
+      }
+      if (pendientes.incrementAndGet() == LOTE) {
+        lock.lock();
+        try {
+          loteLleno.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+
+    private void vaciar() {
+      while (!cerrado || !cola.isEmpty()) {
+        try {
+          lote.add(cola.take());
+        } catch (InterruptedException e) {
+          if (cerrado) {
+            continue; // cerrar despertó al hilo: se escribe lo que quede
+          }
+          Thread.currentThread().interrupt();
+          return;
+        }
+        esperarLote();
+        cola.drainTo(lote, LOTE - 1);
+        pendientes.addAndGet(-lote.size());
+        escribirLote();
+      }
+    }
+
+    private void esperarLote() {
+      lock.lock();
+      try {
+        long restante = TimeUnit.MILLISECONDS.toNanos(ESPERA_LOTE_MILLIS);
+        while (pendientes.get() < LOTE && !cerrado && restante > 0) {
+          restante = loteLleno.awaitNanos(restante);
+        }
+      } catch (InterruptedException e) {
+        if (!cerrado) {
+          Thread.currentThread().interrupt(); // el próximo take termina el hilo
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void escribirLote() {
+      int desde = 0;
+      for (int i = 1; i <= lote.size(); i++) {
+        if (i < lote.size() && lote.get(i).nivel == lote.get(desde).nivel) {
+          continue;
+        }
+        for (int j = desde; j < i; j++) {
+          if (j > desde) {
+            texto.append(System.lineSeparator());
+          }
+          texto.append(lote.get(j).texto);
+        }
+        destino.escribir(lote.get(desde).nivel, texto.toString());
+        texto.setLength(0);
+        desde = i;
+      }
+      lote.clear();
+    }
+
+    long getDescartados() {
+      return descartados.sum();
+    }
+
+    // Escribe lo que quedó en la cola y detiene el hilo
+    void cerrar() {
+      cerrado = true;
+      hilo.interrupt();
+      try {
+        hilo.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private static final class Mensaje {
+      final NivelTraza nivel;
+      final String texto;
+
+      Mensaje(NivelTraza nivel, String texto) {
+        this.nivel = nivel;
+        this.texto = texto;
+      }
+    }
+  }
+
+  // ===================== PROCESADOR =====================
+
+  interface DocumentProcessListener {
+    void onProcessCompleted(List<Documento> documentos, String formato);
+  }
+
+  static class LoggerListener implements DocumentProcessListener {
+    @Override
+    public void onProcessCompleted(List<Documento> documentos, String formato) {
+      System.out.println("[Logger] Procesamiento completado. Documentos: " + documentos.size() + 
+                        ", Formato: " + formato);
+    }
+  }
+
+  static class MetricsListener implements DocumentProcessListener {
+    private final LongAdder totalAcumulado = new LongAdder();
+
+    @Override
+    public void onProcessCompleted(List<Documento> documentos, String formato) {
+      long totalSize = 0;
+      for (Documento documento : documentos) {
+        totalSize += documento.getTamaño();
+      }
+      totalAcumulado.add(totalSize);
+      System.out.println("[Metrics] Tamaño total procesado: " + totalSize + " bytes"
+          + " (acumulado: " + totalAcumulado.sum() + " bytes)");
+    }
+  }
+
+  // ===================== MÉTRICAS =====================
+
+  /*  Histograma en escala logarítmica: el casillero i cuenta los valores
+      entre 2^(i-1) y 2^i - 1. Registrar un valor es un incremento sobre un
+      LongAdder, sin locks ni objetos nuevos. Los percentiles son aproximados
+      (se devuelve el límite superior del casillero). */
+  static final class Histograma {
+    private final LongAdder[] casilleros = new LongAdder[64];
+    private final LongAdder suma = new LongAdder();
+
+    Histograma() {
+      for (int i = 0; i < casilleros.length; i++) {
+        casilleros[i] = new LongAdder();
+      }
+    }
+
+    void registrar(long valor) {
+      long v = Math.max(valor, 0);
+      casilleros[Math.min(63, 64 - Long.numberOfLeadingZeros(v))].increment();
+      suma.add(v);
+    }
+
+    long cantidad() {
+      long total = 0;
+      for (LongAdder casillero : casilleros) {
+        total += casillero.sum();
+      }
+      return total;
+    }
+
+    long suma() {
+      return suma.sum();
+    }
+
+    long percentil(double p) {
+      long[] cuentas = new long[casilleros.length];
+      long total = 0;
+      for (int i = 0; i < casilleros.length; i++) {
+        cuentas[i] = casilleros[i].sum();
+        total += cuentas[i];
+      }
+      long objetivo = (long) Math.ceil(total * p);
+      long acumulado = 0;
+      for (int i = 0; i < cuentas.length; i++) {
+        acumulado += cuentas[i];
+        if (acumulado >= objetivo && acumulado > 0) {
+          return i == 0 ? 0 : (1L << i) - 1;
+        }
+      }
+      return 0;
+    }
+  }
+
+  enum Etapa { COMPRESION, ENCRIPTACION, MARCA_DE_AGUA }
+
+  // Atributos que se ven por JMX (jconsole, VisualVM, etc.)
+  public interface MetricasProcesadorMXBean {
+    long getDocumentosProcesados();
+    double getDocumentosPorSegundo();
+    long getLatenciaTransformacionP50Nanos();
+    long getLatenciaTransformacionP99Nanos();
+    long getTamañoSalidaP50();
+    long getTamañoSalidaP99();
+    Map<String, Long> getBytesEntradaPorEtapa();
+    Map<String, Long> getBytesSalidaPorEtapa();
+    Map<String, Long> getNanosFormateoPorFormato();
+  }
+
+  /*  Contadores e histogramas del procesador, seguros entre hilos.
+      El camino por documento (registrarDocumento) solo incrementa LongAdder
+      y no crea objetos; sumar y armar mapas queda para quien consulta,
+      ya sea por los getters (pull) o por JMX. */
+  static final class MetricasProcesador implements MetricasProcesadorMXBean {
+    private final long inicio = System.nanoTime();
+    private final LongAdder documentos = new LongAdder();
+    private final LongAdder[] bytesEntrada = nuevosContadores();
+    private final LongAdder[] bytesSalida = nuevosContadores();
+    private final Histograma latenciaTransformacion = new Histograma();
+    private final Histograma tamañoSalida = new Histograma();
+    private final Map<String, Histograma> formateoPorFormato = new ConcurrentHashMap<>();
+
+    private static LongAdder[] nuevosContadores() {
+      LongAdder[] contadores = new LongAdder[Etapa.values().length];
+      for (int i = 0; i < contadores.length; i++) {
+        contadores[i] = new LongAdder();
+      }
+      return contadores;
+    }
+
+    void registrarDocumento(TransformacionCompilada transformacion, long tamañoOriginal,
+                            long tamañoBase, long tamañoFinal, long nanos) {
+      documentos.increment();
+      latenciaTransformacion.registrar(nanos);
+      tamañoSalida.registrar(tamañoFinal);
+      if (transformacion.isCompresion()) {
+        registrarEtapa(Etapa.COMPRESION, tamañoOriginal, tamañoBase);
+      }
+      long tamañoEncriptado = transformacion.tamañoEncriptado(tamañoBase);
+      if (transformacion.isEncriptacion()) {
+        registrarEtapa(Etapa.ENCRIPTACION, tamañoBase, tamañoEncriptado);
+      }
+      if (transformacion.isMarcaDeAgua()) {
+        registrarEtapa(Etapa.MARCA_DE_AGUA, tamañoEncriptado, tamañoFinal);
+      }
+    }
+
+    private void registrarEtapa(Etapa etapa, long entrada, long salida) {
+      bytesEntrada[etapa.ordinal()].add(entrada);
+      bytesSalida[etapa.ordinal()].add(salida);
+    }
+
+    /*  Una vez por lote; el histograma de cada formato se crea la primera
+        vez. La clave es el nombre del formateador (getNombre()), nunca la
+        salida formateada: así hay una entrada por formato y no una por lote. */
+    void registrarFormateo(String nombreFormateador, long nanos) {
+      formateoPorFormato.computeIfAbsent(nombreFormateador, f -> new Histograma()).registrar(nanos);
+    }
+
+    // Publica estas métricas en el MBeanServer de la plataforma
+    void registrarEnJmx(String nombre) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+            new ObjectName("examenes.DocumentProcessor:type=MetricasProcesador,name=" + ObjectName.quote(nombre)));
+      } catch (JMException e) {
+        throw new IllegalStateException("No se pudieron registrar las métricas en JMX", e);
+      }
+    }
+
+    @Override
+    public long getDocumentosProcesados() {
+      return documentos.sum();
+    }
+
+    @Override
+    public double getDocumentosPorSegundo() {
+      double segundos = (System.nanoTime() - inicio) / 1_000_000_000.0;
+      return segundos > 0 ? documentos.sum() / segundos : 0;
+    }
+
+    @Override
+    public long getLatenciaTransformacionP50Nanos() {
+      return latenciaTransformacion.percentil(0.50);
+    }
+
+    @Override
+    public long getLatenciaTransformacionP99Nanos() {
+      return latenciaTransformacion.percentil(0.99);
+    }
+
+    @Override
+    public long getTamañoSalidaP50() {
+      return tamañoSalida.percentil(0.50);
+    }
+
+    @Override
+    public long getTamañoSalidaP99() {
+      return tamañoSalida.percentil(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getBytesEntradaPorEtapa() {
+      return porEtapa(bytesEntrada);
+    }
+
+    @Override
+    public Map<String, Long> getBytesSalidaPorEtapa() {
+      return porEtapa(bytesSalida);
+    }
+
+    @Override
+    public Map<String, Long> getNanosFormateoPorFormato() {
+      Map<String, Long> resultado = new TreeMap<>();
+      formateoPorFormato.forEach((formato, histograma) -> resultado.put(formato, histograma.suma()));
+      return resultado;
+    }
+
+    private static Map<String, Long> porEtapa(LongAdder[] contadores) {
+      Map<String, Long> resultado = new LinkedHashMap<>();
+      for (Etapa etapa : Etapa.values()) {
+        resultado.put(etapa.name(), contadores[etapa.ordinal()].sum());
+      }
+      return resultado;
+    }
+
+    void imprimir() {
+      if (!NivelTraza.INFO.activo()) {
+        return;
+      }
+      Traza.escribir(NivelTraza.INFO, String.format(
+          "[Metricas] %d documentos (%.0f docs/s), latencia p50=%d ns p99=%d ns, tamaño p50=%d p99=%d bytes",
+          getDocumentosProcesados(), getDocumentosPorSegundo(),
+          getLatenciaTransformacionP50Nanos(), getLatenciaTransformacionP99Nanos(),
+          getTamañoSalidaP50(), getTamañoSalidaP99()));
+      Map<String, Long> salida = getBytesSalidaPorEtapa();
+      getBytesEntradaPorEtapa().forEach((etapa, entrada) ->
+          Traza.escribir(NivelTraza.INFO, "[Metricas] " + etapa + ": " + entrada + " → " + salida.get(etapa) + " bytes"));
+      formateoPorFormato.forEach((formato, histograma) ->
+          Traza.escribir(NivelTraza.INFO, String.format("[Metricas] Formateo %s: %d lotes, %.3f ms en total",
+              formato, histograma.cantidad(), histograma.suma() / 1_000_000.0)));
+    }
+  }
+
+  // Qué hacer cuando un listener lento llena su buffer de eventos
+  enum PoliticaContrapresion {
+    BLOQUEAR,  // el procesador espera a que haya lugar
+    DESCARTAR, // el evento nuevo se pierde para ese listener
+    MUESTREAR  // con el buffer a más de la mitad, solo pasa 1 de cada N eventos
+  }
+
+  /*  Entrega los eventos de fin de procesamiento de forma asíncrona.
+      Cada listener tiene su propio buffer circular, acotado y con los
+      casilleros creados de antemano, y su propio hilo consumidor: un listener
+      lento solo se atrasa a sí mismo y nunca al procesador (salvo con
+      BLOQUEAR). Por listener se cuentan eventos publicados, entregados y
+      descartados; el lag es lo publicado que todavía no se entregó. */
+  static final class BusEventosAsincrono {
+    private final int capacidad;
+    private final PoliticaContrapresion politica;
+    private final int tasaMuestreo;
+    private final List<Suscriptor> suscriptores = new CopyOnWriteArrayList<>();
+
+    BusEventosAsincrono(int capacidad, PoliticaContrapresion politica, int tasaMuestreo) {
+      if (Integer.bitCount(capacidad) != 1) {
+        throw new IllegalArgumentException("La capacidad debe ser potencia de 2: " + capacidad);
+      }
+      if (tasaMuestreo <= 0) {
+        throw new IllegalArgumentException("La tasa de muestreo debe ser positiva: " + tasaMuestreo);
+      }
+      this.capacidad = capacidad;
+      this.politica = politica;
+      this.tasaMuestreo = tasaMuestreo;
+    }
+
+    void suscribir(DocumentProcessListener listener) {
+      Suscriptor suscriptor = new Suscriptor(listener, capacidad);
+      suscriptores.add(suscriptor);
+      suscriptor.hilo.start();
+    }
+
+    // Cada lote llega en una lista nueva, así que se puede entregar sin copiarla
+    void publicar(List<Documento> documentos, String formato) {
+      for (Suscriptor suscriptor : suscriptores) {
+        suscriptor.ofrecer(documentos, formato, politica, tasaMuestreo);
+      }
+    }
+
+    long getLag(DocumentProcessListener listener) {
+      for (Suscriptor suscriptor : suscriptores) {
+        if (suscriptor.listener == listener) {
+          return suscriptor.publicados - suscriptor.entregados;
+        }
+      }
+      return 0;
+    }
+
+    void imprimirLag() {
+      if (!NivelTraza.INFO.activo()) {
+        return;
+      }
+      for (Suscriptor suscriptor : suscriptores) {
+        Traza.escribir(NivelTraza.INFO, "[Bus] " + suscriptor.listener.getClass().getSimpleName()
+            + ": publicados=" + suscriptor.publicados
+            + ", entregados=" + suscriptor.entregados
+            + ", descartados=" + suscriptor.descartados
+            + ", lag=" + (suscriptor.publicados - suscriptor.entregados));
+      }
+    }
+
+    // Entrega lo que quedó pendiente y detiene los hilos consumidores
+    void cerrar() {
+      for (Suscriptor suscriptor : suscriptores) {
+        suscriptor.cerrar();
+      }
+      for (Suscriptor suscriptor : suscriptores) {
+        try {
+          suscriptor.hilo.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+
+    // Casillero del buffer circular: se reutiliza, no se crea uno por evento
+    private static final class Evento {
+      List<Documento> documentos;
+      String formato;
+    }
+
+    private static final class Suscriptor implements Runnable {
+      private final DocumentProcessListener listener;
+      private final Evento[] buffer;
+      private final int mascara;
+      private final Thread hilo;
+      private final ReentrantLock lock = new ReentrantLock();
+      private final Condition hayEventos = lock.newCondition();
+      private final Condition hayLugar = lock.newCondition();
+      // Se escriben con el lock tomado; volatile para leerlos sin lock en las métricas
+      private volatile long publicados;
+      private volatile long entregados;
+      private volatile long descartados;
+      private long ofrecidos; // para el muestreo
+      private boolean cerrado;
+
+      Suscriptor(DocumentProcessListener listener, int capacidad) {
+        this.listener = listener;
+        this.buffer = new Evento[capacidad];
+        for (int i = 0; i < capacidad; i++) {
+          buffer[i] = new Evento();
+        }
+        this.mascara = capacidad - 1;
+        this.hilo = new Thread(this, "bus-" + listener.getClass().getSimpleName());
+        this.hilo.setDaemon(true);
+      }
+
+      void ofrecer(List<Documento> documentos, String formato, PoliticaContrapresion politica, int tasaMuestreo) {
+        lock.lock();
+        try {
+          long pendientes = publicados - entregados;
+          boolean lleno = pendientes == buffer.length;
+          if (politica == PoliticaContrapresion.MUESTREAR && pendientes > buffer.length / 2
+              && ofrecidos++ % tasaMuestreo != 0) {
+            descartados++;
+            return;
+          }
+          if (lleno && politica != PoliticaContrapresion.BLOQUEAR) {
+            descartados++;
+            return;
+          }
+          while (publicados - entregados == buffer.length && !cerrado) {
+            hayLugar.awaitUninterruptibly();
+          }
+          if (cerrado) {
+            descartados++;
+            return;
+          }
+          Evento evento = buffer[(int) (publicados & mascara)];
+          evento.documentos = documentos;
+          evento.formato = formato;
+          publicados++;
+          hayEventos.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      public void run() {
+        while (true) {
+          List<Documento> documentos;
+          String formato;
+          lock.lock();
+          try {
+            while (publicados == entregados && !cerrado) {
+              hayEventos.awaitUninterruptibly();
+            }
+            if (publicados == entregados) {
+              return; // cerrado y sin pendientes
+            }
+            Evento evento = buffer[(int) (entregados & mascara)];
+            documentos = evento.documentos;
+            formato = evento.formato;
+            evento.documentos = null;
+            evento.formato = null;
+          } finally {
+            lock.unlock();
+          }
+
+          // El listener corre fuera del lock para no frenar al procesador
+          try {
+            listener.onProcessCompleted(documentos, formato);
+          } catch (RuntimeException e) {
+            if (NivelTraza.AVISO.activo()) {
+              Traza.escribir(NivelTraza.AVISO, "[Bus] Falló " + listener.getClass().getSimpleName() + ": " + e);
+            }
+          }
+
+          lock.lock();
+          try {
+            entregados++;
+            hayLugar.signal();
+          } finally {
+            lock.unlock();
+          }
+        }
+      }
+
+      void cerrar() {
+        lock.lock();
+        try {
+          cerrado = true;
+          hayEventos.signal();
+          hayLugar.signalAll();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+
+  /*  Esta clase es el centro de todo.
+      Recibe documentos y aplica transformaciones,
+      formateo y notifica a listeners */
+  /*  Inmutable: todo se fija en build() y los campos son final, así una
+      misma instancia se puede publicar y compartir entre cualquier cantidad
+      de hilos que llamen a procesar a la vez. procesar no guarda estado
+      entre llamadas; lo que sí se comparte (métricas, caché, bus) ya es
+      seguro para hilos. Para otra configuración se arma otro procesador. */
+  static final class ProcesadorDocumentos  {
+    private final List<DocumentProcessListener> listeners;
+    private final FormateadorDocumento formateador;
+    private final ExecutorService ejecutor; // null = transformaciones en el hilo que llama
+    private final boolean ejecutorPropio; // lo creó build(): se apaga en cerrar
+    private final BusEventosAsincrono bus; // null = listeners notificados en el hilo que procesa
+    private final MetricasProcesador metricas; // null = sin métricas
+    private final CacheDeduplicacion cache; // null = sin deduplicación
+    
+    // Transformaciones activas, ya compiladas en una sola función de tamaño
+    private final TransformacionCompilada transformacion;
+
+    private ProcesadorDocumentos(ProcesadorDocumentosBuilder builder) {
+      // Las transformaciones se compilan una sola vez para todo el procesador
+      this.transformacion = TransformacionCompilada.compilar(
+          builder.compresion, builder.encriptacion, builder.marcaDeAgua);
+      this.formateador = FormateadorFactory.crear(builder.formato);
+      // Cada procesador tiene su propio pool; uno recibido de afuera lo apaga quien lo pasó
+      this.ejecutorPropio = builder.paralelismo > 0;
+      this.ejecutor = ejecutorPropio ? new ForkJoinPool(builder.paralelismo) : builder.ejecutor;
+      this.metricas = builder.metricas;
+      this.cache = builder.capacidadCache > 0 ? new CacheDeduplicacion(builder.capacidadCache) : null;
+      this.listeners = List.copyOf(builder.listeners);
+      if (builder.capacidadBus > 0) {
+        this.bus = new BusEventosAsincrono(builder.capacidadBus, builder.politicaBus, builder.tasaMuestreo);
+        for (DocumentProcessListener listener : listeners) {
+          bus.suscribir(listener);
+        }
+      } else {
+        this.bus = null;
+      }
+    }
+
+    public MetricasProcesador getMetricas() {
+      return metricas;
+    }
+
+    public CacheDeduplicacion getCache() {
+      return cache;
+    }
+
+    public TransformacionCompilada getTransformacion() {
+      return transformacion;
+    }
+
+    // Lag por listener en modo asíncrono (0 en modo sincrónico)
+    public long getLag(DocumentProcessListener listener) {
+      return bus != null ? bus.getLag(listener) : 0;
+    }
+
+    public void imprimirLag() {
+      if (bus != null) {
+        bus.imprimirLag();
+      }
+    }
+
+    /*  Espera a que los listeners asíncronos reciban lo pendiente y los
+        detiene, y apaga el pool de conEjecucionParalela(int) si lo hay. */
+    public void cerrar() {
+      if (bus != null) {
+        bus.cerrar();
+      }
+      if (ejecutorPropio) {
+        ejecutor.shutdown();
+      }
+    }
+    
+    public void procesar(List<Documento> documentos) {
+      Traza.escribir(NivelTraza.INFO, "=== PROCESANDO DOCUMENTOS ===");
+      
+      // String formato = formateador.formatear(documentos);
+      emitirLote(transformar(documentos));
+    }
+
+    /*  Modo streaming: los documentos se consumen de a lotes de tamaño fijo.
+        Cada lote se formatea y se notifica apenas se completa, así la memoria
+        queda acotada por tamañoLote sin importar cuántos documentos lleguen.
+        Solo se reutiliza el buffer de entrada: los listeners reciben una
+        lista nueva por lote y la pueden guardar. */
+    public void procesar(Stream<Documento> documentos, int tamañoLote) {
+      procesar(documentos.iterator(), tamañoLote);
+    }
+
+    public void procesar(Iterator<Documento> documentos, int tamañoLote) {
+      if (tamañoLote <= 0) {
+        throw new IllegalArgumentException("El tamaño de lote debe ser positivo: " + tamañoLote);
+      }
+
+      Traza.escribir(NivelTraza.INFO, "=== PROCESANDO DOCUMENTOS (STREAMING) ===");
+      try {
+        procesarPorLotes(documentos, tamañoLote, this::emitirLote);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e); // emitirLote no hace E/S
+      }
+    }
+
+    /*  Como el modo streaming, pero la salida formateada se escribe directo
+        en destino a medida que se completa cada lote, sin armarla en memoria.
+        Requiere un formateador que implemente FormateadorStreaming. */
+    public void procesar(Iterator<Documento> documentos, int tamañoLote, WritableByteChannel destino)
+        throws IOException {
+      if (tamañoLote <= 0) {
+        throw new IllegalArgumentException("El tamaño de lote debe ser positivo: " + tamañoLote);
+      }
+      if (!formateador.soportaStreaming()) {
+        throw new IllegalStateException("El formateador configurado no soporta salida en streaming: " + formateador);
+      }
+
+      Traza.escribir(NivelTraza.INFO, "=== PROCESANDO DOCUMENTOS (STREAMING A CANAL) ===");
+      FormateadorStreaming streaming = (FormateadorStreaming) formateador;
+      // Si el formateador sabe renderizar por partes, usa el ejecutor del procesador (o el pool común)
+      try (SalidaFormateada salida = formateador.soportaRenderizadoParalelo()
+          ? streaming.abrir(destino, ejecutor != null ? ejecutor : ForkJoinPool.commonPool())
+          : streaming.abrir(destino)) {
+        procesarPorLotes(documentos, tamañoLote, lote -> escribirLote(salida, lote));
+      }
+    }
+
+    private interface ReceptorLote {
+      void recibir(List<Documento> procesados) throws IOException;
+    }
+
+    private void procesarPorLotes(Iterator<Documento> documentos, int tamañoLote, ReceptorLote receptor)
+        throws IOException {
+      List<Documento> lote = new ArrayList<>(tamañoLote);
+      while (documentos.hasNext()) {
+        lote.add(documentos.next());
+
+        if (lote.size() == tamañoLote) {
+          receptor.recibir(transformar(lote));
+          lote.clear();
+        }
+      }
+
+      if (!lote.isEmpty()) {
+        receptor.recibir(transformar(lote));
+      }
+    }
+
+    private void escribirLote(SalidaFormateada salida, List<Documento> lote) throws IOException {
+      long inicio = System.nanoTime();
+      salida.escribir(lote);
+      if (metricas != null) {
+        metricas.registrarFormateo(formateador.getNombre(), System.nanoTime() - inicio);
+      }
+      notifyProcessCompleted(lote, salida.getFormato());
+    }
+
+    private List<Documento> transformar(List<Documento> documentos) {
+      if (ejecutor != null) {
+        return transformarEnParalelo(documentos);
+      }
+
+      List<Documento> procesados = new ArrayList<>(documentos.size());
+      for (Documento doc : documentos) {
+        if (NivelTraza.DEPURACION.activo()) {
+          Traza.escribir(NivelTraza.DEPURACION, "Procesando: " + doc);
+        }
+        
+        // Aplicar transformaciones con Patrón Decorator
+        Documento docFinal = transformarConCache(doc); // Esta función maneja los decoradores
+        procesados.add(docFinal);
+      }
+      return procesados;
+    }
+
+    // Si el documento ya se procesó con la misma transformación, reutiliza el resultado
+    private Documento transformarConCache(Documento doc) {
+      if (cache == null || transformacion.esIdentidad()) {
+        return aplicarTransformaciones(doc);
+      }
+      CacheDeduplicacion.Clave clave = CacheDeduplicacion.clave(doc, transformacion);
+      long tamañoBase = cache.buscar(clave);
+      if (tamañoBase >= 0) {
+        Traza.escribir(NivelTraza.DEPURACION, "  - Resultado reutilizado de la caché");
+        return new DocumentoTransformado(doc, transformacion, tamañoBase);
+      }
+      Documento docFinal = aplicarTransformaciones(doc);
+      if (docFinal instanceof DocumentoTransformado) {
+        cache.guardar(clave, ((DocumentoTransformado) docFinal).getTamañoBase());
+      }
+      return docFinal;
+    }
+
+    /*  Reparte aplicarTransformaciones en el ejecutor configurado.
+        Los resultados se recogen en el orden en que se enviaron, así el
+        formateador recibe los documentos en su orden original. */
+    private List<Documento> transformarEnParalelo(List<Documento> documentos) {
+      long inicio = System.nanoTime();
+
+      List<Future<Documento>> pendientes = new ArrayList<>(documentos.size());
+      for (Documento doc : documentos) {
+        pendientes.add(ejecutor.submit(() -> {
+          if (NivelTraza.DEPURACION.activo()) {
+            Traza.escribir(NivelTraza.DEPURACION, "Procesando: " + doc);
+          }
+          return transformarConCache(doc);
+        }));
+      }
+
+      List<Documento> procesados = new ArrayList<>(documentos.size());
+      for (Future<Documento> pendiente : pendientes) {
+        procesados.add(esperar(pendiente));
+      }
+
+      reportarThroughput(procesados.size(), System.nanoTime() - inicio);
+      return procesados;
+    }
+
+    private Documento esperar(Future<Documento> pendiente) {
+      try {
+        return pendiente.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Procesamiento interrumpido", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Falló la transformación de un documento", e.getCause());
+      }
+    }
+
+    private void reportarThroughput(int cantidad, long nanos) {
+      if (!NivelTraza.INFO.activo()) {
+        return;
+      }
+      int nucleos = ejecutor instanceof ForkJoinPool
+          ? ((ForkJoinPool) ejecutor).getParallelism()
+          : Runtime.getRuntime().availableProcessors();
+      double segundos = Math.max(nanos, 1) / 1_000_000_000.0;
+      double porSegundo = cantidad / segundos;
+      Traza.escribir(NivelTraza.INFO, String.format(
+          "[PARALELO] %d documentos en %.2f ms (%.0f docs/s, %.0f docs/s por núcleo, %d núcleos)",
+          cantidad, nanos / 1_000_000.0, porSegundo, porSegundo / nucleos, nucleos));
+    }
+
+    /*  Etapa Flow para fuentes que empujan documentos (p. ej. una cola):
+        pide a la fuente como mucho capacidadBuffer documentos sin procesar,
+        los junta en lotes de tamañoLote (o lo que haya tras maxEsperaMillis)
+        y publica la salida de cada lote hacia abajo. */
+    public EtapaReactiva etapaReactiva(int capacidadBuffer, int tamañoLote, long maxEsperaMillis,
+        int capacidadSalida) {
+      return new EtapaReactiva(this, capacidadBuffer, tamañoLote, maxEsperaMillis, capacidadSalida);
+    }
+
+    /*  Reprocesa un lote ya procesado (quizás por otro procesador del mismo
+        builder) reutilizando sus resultados intermedios: la compresión, que
+        es la etapa cara, se calcula una vez por documento y nivel; encriptar
+        y marcar se derivan de ese tamaño. Si no cambió la salida de ningún
+        documento se reutiliza la salida formateada anterior; si cambió
+        alguno, se vuelve a formatear el lote entero, porque la salida es una
+        sola y tiene que representar a todos. Los listeners reciben el lote
+        completo. Devuelve los documentos cuya salida cambió. */
+    public List<Documento> reprocesar(LoteIncremental lote) {
+      synchronized (lote) {
+        List<Documento> originales = lote.getOriginales();
+        long[] comprimidos = transformacion.isCompresion()
+            ? lote.comprimidos(transformacion.getNivelCompresion())
+            : null;
+        boolean otroFormateador = lote.formateador != formateador;
+
+        List<Documento> resultados = new ArrayList<>(originales.size());
+        List<Documento> cambiados = new ArrayList<>();
+        for (int i = 0; i < originales.size(); i++) {
+          Documento original = originales.get(i);
+          long inicio = System.nanoTime();
+          Documento resultado = original;
+          if (!transformacion.esIdentidad()) {
+            long tamañoBase;
+            if (comprimidos == null) {
+              tamañoBase = original.getTamaño();
+            } else {
+              if (comprimidos[i] < 0) {
+                comprimidos[i] = transformacion.tamañoBase(original);
+              }
+              tamañoBase = comprimidos[i];
+            }
+            resultado = new DocumentoTransformado(original, transformacion, tamañoBase);
+          }
+          if (metricas != null) {
+            long tamañoBase = resultado instanceof DocumentoTransformado
+                ? ((DocumentoTransformado) resultado).getTamañoBase()
+                : resultado.getTamaño();
+            metricas.registrarDocumento(transformacion, original.getTamaño(), tamañoBase,
+                resultado.getTamaño(), System.nanoTime() - inicio);
+          }
+
+          if (otroFormateador || !transformacion.mismoContenido(lote.renderizadoCon[i])) {
+            cambiados.add(resultado);
+            lote.renderizadoCon[i] = transformacion;
+          }
+          resultados.add(resultado);
+        }
+
+        String formato = lote.formato;
+        if (!cambiados.isEmpty()) {
+          if (NivelTraza.INFO.activo()) {
+            Traza.escribir(NivelTraza.INFO, "[Incremental] " + cambiados.size() + " de " + originales.size()
+                + " documentos cambiaron; se vuelve a formatear el lote");
+          }
+          long inicio = System.nanoTime();
+          formato = formateador.formatear(resultados);
+          if (metricas != null) {
+            metricas.registrarFormateo(formateador.getNombre(), System.nanoTime() - inicio);
+          }
+          lote.formateador = formateador;
+          lote.formato = formato;
+        }
+        notifyProcessCompleted(resultados, formato);
+        return cambiados;
+      }
+    }
+
+    // Transforma, formatea y notifica un lote completo; devuelve la salida formateada
+    String procesarLote(List<Documento> lote) {
+      return emitirLote(transformar(lote));
+    }
+
+    private String emitirLote(List<Documento> lote) {
+      long inicio = System.nanoTime();
+      String formato = formateador.formatear(lote);
+      if (metricas != null) {
+        metricas.registrarFormateo(formateador.getNombre(), System.nanoTime() - inicio);
+      }
+
+      if (NivelTraza.INFO.activo()) {
+        Traza.escribir(NivelTraza.INFO, "Formato de salida: " + formato);
+      }
+      
+      // notifyProcessCompleted(documentos, formato);
+      notifyProcessCompleted(lote, formato);
+      return formato;
+    }
+
+    private Documento aplicarTransformaciones(Documento doc){
+        /*
+         * Esta función determinará qué transformaciones se ejecutarán.
+         */
+        long inicio = System.nanoTime();
+        if (transformacion.esIdentidad()) {
+            long tamaño = doc.getTamaño();
+            if (metricas != null) {
+                metricas.registrarDocumento(transformacion, tamaño, tamaño, tamaño, System.nanoTime() - inicio);
+            }
+            if (NivelTraza.DEPURACION.activo()) {
+                Traza.escribir(NivelTraza.DEPURACION, "  - Tamaño final: " + tamaño + " bytes");
+            }
+            return doc;
+        }
+
+        // Un único envoltorio con el tamaño ya resuelto, en vez de la cadena de decorators
+        DocumentoTransformado docFinal = new DocumentoTransformado(doc, transformacion);
+        if (metricas != null) {
+            metricas.registrarDocumento(transformacion, doc.getTamaño(), docFinal.getTamañoBase(),
+                docFinal.getTamaño(), System.nanoTime() - inicio);
+        }
+        if (NivelTraza.DEPURACION.activo()) {
+            for (String paso : transformacion.getPasos()) {
+                Traza.escribir(NivelTraza.DEPURACION, "  - " + paso);
+            }
+            if (transformacion.isCompresion()) {
+                Traza.escribir(NivelTraza.DEPURACION, String.format("  - Tiempo de compresión: %.3f ms",
+                    docFinal.getNanosCompresion() / 1_000_000.0));
+            }
+            Traza.escribir(NivelTraza.DEPURACION, "  - Tamaño final: " + docFinal.getTamaño() + " bytes");
+        }
+        return docFinal;
+    }
+    
+    private void notifyProcessCompleted(List<Documento> documentos, String formato) {
+      if (bus != null) {
+        bus.publicar(documentos, formato);
+        return;
+      }
+      for (DocumentProcessListener listener : listeners) {
+        listener.onProcessCompleted(documentos, formato);
+      }
+    }
+  }
+
+  static class ProcesadorDocumentosBuilder {
+    NivelCompresion compresion = null; // null = sin compresión
+    EncriptadorAES encriptacion = null; // null = sin encriptación
+    boolean marcaDeAgua = false;
+    String formato;
+    ExecutorService ejecutor;
+    int paralelismo = 0; // > 0: cada build() crea su propio ForkJoinPool
+    int capacidadBus = 0; // 0 = notificación sincrónica
+    PoliticaContrapresion politicaBus;
+    int tasaMuestreo = 10;
+    MetricasProcesador metricas;
+    int capacidadCache = 0; // 0 = sin deduplicación
+    private final List<DocumentProcessListener> listeners = new ArrayList<>();
+    public ProcesadorDocumentosBuilder conCompresion(){
+        return conCompresion(NivelCompresion.EQUILIBRADA);
+    }
+
+    // RAPIDA prioriza velocidad, MAXIMA prioriza la relación de compresión
+    public ProcesadorDocumentosBuilder conCompresion(NivelCompresion nivel){
+        this.compresion = nivel;
+        return this;
+    }
+
+    // Con una clave nueva; para descifrar la salida hay que guardarla con getClaveEncriptacion()
+    public ProcesadorDocumentosBuilder conEncriptacion(){
+        this.encriptacion = EncriptadorAES.conClaveAleatoria();
+        return this;
+    }
+
+    public ProcesadorDocumentosBuilder conEncriptacion(SecretKey clave){
+        this.encriptacion = new EncriptadorAES(clave);
+        return this;
+    }
+
+    public ProcesadorDocumentosBuilder conMarcaDeAgua(){
+        this.marcaDeAgua = true;
+        return this;
+    }
+
+    // Para volver a construir sin alguna etapa (ver ProcesadorDocumentos.reprocesar)
+    public ProcesadorDocumentosBuilder sinCompresion(){
+        this.compresion = null;
+        return this;
+    }
+
+    // null si no hay encriptación configurada
+    public SecretKey getClaveEncriptacion(){
+        return encriptacion != null ? encriptacion.getClave() : null;
+    }
+
+    // Se descarta la clave: un conEncriptacion() posterior genera otra
+    public ProcesadorDocumentosBuilder sinEncriptacion(){
+        this.encriptacion = null;
+        return this;
+    }
+
+    public ProcesadorDocumentosBuilder sinMarcaDeAgua(){
+        this.marcaDeAgua = false;
+        return this;
+    }
+
+    public ProcesadorDocumentosBuilder conFormateador(String tipo){
+        this.formato = tipo;
+        return this;
+    }
+
+    /*  Transformaciones en paralelo sobre un ForkJoinPool con el paralelismo
+        indicado. El pool se crea en build(), uno por procesador, y lo apaga
+        ProcesadorDocumentos.cerrar(). */
+    public ProcesadorDocumentosBuilder conEjecucionParalela(int paralelismo){
+        if (paralelismo <= 0) {
+          throw new IllegalArgumentException("El paralelismo debe ser positivo: " + paralelismo);
+        }
+        this.paralelismo = paralelismo;
+        this.ejecutor = null;
+        return this;
+    }
+
+    // Cualquier ejecutor, p. ej. Executors.newVirtualThreadPerTaskExecutor() en Java 21+; no se apaga en cerrar()
+    public ProcesadorDocumentosBuilder conEjecucionParalela(ExecutorService ejecutor){
+        this.ejecutor = ejecutor;
+        this.paralelismo = 0;
+        return this;
+    }
+
+    // Cada listener recibe los eventos en su propio hilo, con un buffer de la capacidad dada
+    public ProcesadorDocumentosBuilder conNotificacionAsincrona(int capacidad, PoliticaContrapresion politica){
+        this.capacidadBus = capacidad;
+        this.politicaBus = politica;
+        return this;
+    }
+
+    // Con MUESTREAR y el buffer a más de la mitad, pasa 1 de cada tasaMuestreo eventos (se saltean tasaMuestreo - 1)
+    public ProcesadorDocumentosBuilder conTasaMuestreo(int tasaMuestreo){
+        this.tasaMuestreo = tasaMuestreo;
+        return this;
+    }
+
+    // Reutiliza el resultado de documentos repetidos; guarda hasta capacidad resultados
+    public ProcesadorDocumentosBuilder conCacheDeduplicacion(int capacidad){
+        this.capacidadCache = capacidad;
+        return this;
+    }
+
+    public ProcesadorDocumentosBuilder conMetricas(MetricasProcesador metricas){
+        this.metricas = metricas;
+        return this;
+    }
+
+    public ProcesadorDocumentosBuilder agregarListener(DocumentProcessListener listener){
+      listeners.add(listener);
+      return this;
+    }
+
+    // El builder se puede seguir usando: cada build() arma un procesador independiente
+    public ProcesadorDocumentos build(){
+        return new ProcesadorDocumentos(this);
+    }
+  }
+
+  // ===================== REPROCESAMIENTO INCREMENTAL =====================
+
+  /*  Resultados intermedios de un lote para ProcesadorDocumentos.reprocesar:
+      el tamaño comprimido de cada documento por nivel de compresión y con
+      qué transformación se formateó cada uno la última vez. Encriptación y
+      marca de agua no se guardan porque se derivan del tamaño comprimido
+      con aritmética. Para que la encriptación se reutilice, los
+      procesadores deben salir del mismo builder (misma clave). */
+  static final class LoteIncremental {
+    private final List<Documento> originales;
+    private final Map<NivelCompresion, long[]> comprimidos = new EnumMap<>(NivelCompresion.class);
+    final TransformacionCompilada[] renderizadoCon; // null = nunca formateado
+    FormateadorDocumento formateador;
+    String formato; // salida formateada del lote completo, la última vez
+
+    LoteIncremental(List<Documento> documentos) {
+      this.originales = new ArrayList<>(documentos);
+      this.renderizadoCon = new TransformacionCompilada[documentos.size()];
+    }
+
+    List<Documento> getOriginales() {
+      return Collections.unmodifiableList(originales);
+    }
+
+    // Cambia un documento del lote; solo ese se recalcula en el próximo reprocesar
+    synchronized void reemplazar(int indice, Documento documento) {
+      originales.set(indice, documento);
+      for (long[] tamaños : comprimidos.values()) {
+        tamaños[indice] = -1;
+      }
+      renderizadoCon[indice] = null;
+    }
+
+    // Tamaños comprimidos con el nivel dado; -1 = todavía no calculado
+    long[] comprimidos(NivelCompresion nivel) {
+      return comprimidos.computeIfAbsent(nivel, n -> {
+        long[] tamaños = new long[originales.size()];
+        Arrays.fill(tamaños, -1);
+        return tamaños;
+      });
+    }
+  }
+
+  // ===================== ETAPA REACTIVA =====================
+
+  /*  Flow.Processor: recibe documentos y publica la salida formateada de
+      cada lote. El control de flujo es por demanda: al suscribirse pide
+      capacidadBuffer documentos y solo vuelve a pedir, de a tantos como
+      procesó, cuando un lote termina de transformarse, formatearse y
+      notificarse. Así una ráfaga queda en la fuente y no en memoria.
+      Si el suscriptor de abajo va lento, submit se bloquea al llenarse su
+      buffer (capacidadSalida) y eso frena también los pedidos hacia arriba.
+      Un lote incompleto se procesa igual pasados maxEsperaMillis, para que
+      en períodos tranquilos los documentos no queden esperando compañía.
+      El temporizador, compartido por todas las etapas, solo pasa ese lote
+      al ejecutor de la etapa (el mismo que entrega la salida); nunca
+      transforma, formatea ni se bloquea en submit. */
+  static final class EtapaReactiva implements Flow.Processor<Documento, String> {
+    private static final ScheduledExecutorService TEMPORIZADOR = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread hilo = new Thread(r, "etapa-reactiva-temporizador");
+      hilo.setDaemon(true);
+      return hilo;
+    });
+
+    private final ProcesadorDocumentos procesador;
+    private final int capacidadBuffer;
+    private final int tamañoLote;
+    private final long maxEsperaMillis;
+    private final Executor ejecutor;
+    private final SubmissionPublisher<String> salida;
+    // onNext llega serializado, pero un lote vencido se vacía desde el ejecutor
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Documento> lote;
+
+    private Flow.Subscription suscripcion;
+    private ScheduledFuture<?> vencimiento;
+    private long lotesVaciados; // para descartar un vencimiento que llega tarde
+    private boolean terminada;
+
+    EtapaReactiva(ProcesadorDocumentos procesador, int capacidadBuffer, int tamañoLote, long maxEsperaMillis,
+        int capacidadSalida) {
+      if (tamañoLote <= 0 || capacidadBuffer < tamañoLote) {
+        throw new IllegalArgumentException("Se necesita 0 < tamañoLote <= capacidadBuffer: "
+            + tamañoLote + ", " + capacidadBuffer);
+      }
+      this.procesador = procesador;
+      this.capacidadBuffer = capacidadBuffer;
+      this.tamañoLote = tamañoLote;
+      this.maxEsperaMillis = maxEsperaMillis;
+      this.lote = new ArrayList<>(tamañoLote);
+      this.ejecutor = ForkJoinPool.commonPool();
+      this.salida = new SubmissionPublisher<>(ejecutor, capacidadSalida);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> suscriptor) {
+      salida.subscribe(suscriptor);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription suscripcion) {
+      if (this.suscripcion != null) {
+        suscripcion.cancel(); // una etapa atiende a una sola fuente
+        return;
+      }
+      this.suscripcion = suscripcion;
+      suscripcion.request(capacidadBuffer);
+    }
+
+    @Override
+    public void onNext(Documento documento) {
+      lock.lock();
+      try {
+        if (terminada) {
+          return;
+        }
+        lote.add(documento);
+        if (lote.size() >= tamañoLote) {
+          vaciar();
+        } else if (lote.size() == 1 && maxEsperaMillis > 0) {
+          long numeroLote = lotesVaciados;
+          vencimiento = TEMPORIZADOR.schedule(() -> ejecutor.execute(() -> vencer(numeroLote)),
+              maxEsperaMillis, TimeUnit.MILLISECONDS);
+        }
+      } catch (RuntimeException e) {
+        abortar(e);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      lock.lock();
+      try {
+        if (!terminada) {
+          abortar(error);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      lock.lock();
+      try {
+        if (terminada) {
+          return;
+        }
+        if (!lote.isEmpty()) {
+          vaciar();
+        }
+        terminada = true;
+        salida.close();
+      } catch (RuntimeException e) {
+        abortar(e);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // Corre en el ejecutor; si el lote ya se vació por tamaño, el vencimiento es de otro lote y no hace nada
+    private void vencer(long numeroLote) {
+      lock.lock();
+      try {
+        if (!terminada && numeroLote == lotesVaciados && !lote.isEmpty()) {
+          vaciar();
+        }
+      } catch (RuntimeException e) {
+        abortar(e);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // Con el lock tomado: procesa el lote, lo publica y repone la demanda consumida
+    private void vaciar() {
+      if (vencimiento != null) {
+        vencimiento.cancel(false);
+        vencimiento = null;
+      }
+      int cantidad = lote.size();
+      lotesVaciados++;
+      String formato = procesador.procesarLote(lote);
+      lote.clear();
+      salida.submit(formato);
+      suscripcion.request(cantidad);
+    }
+
+    private void abortar(Throwable error) {
+      terminada = true;
+      lote.clear();
+      if (vencimiento != null) {
+        vencimiento.cancel(false);
+      }
+      if (suscripcion != null) {
+        suscripcion.cancel();
+      }
+      salida.closeExceptionally(error);
+    }
+  }
+
+  // ===================== FORMATEADORES =====================
+                        /* STRATEGY */
+  /*  Las implementaciones deben ser sin estado: el registro comparte una
+      única instancia de cada una entre todos los procesadores. */
+  public interface FormateadorDocumento {
+    String formatear(List<Documento> documentos);
+
+    // Nombre con el que se registra y se busca, sin distinguir mayúsculas
+    String getNombre();
+
+    // Puede escribir la salida en un canal lote a lote (ver FormateadorStreaming)
+    default boolean soportaStreaming() {
+      return this instanceof FormateadorStreaming;
+    }
+
+    /*  Puede renderizar partes de un mismo lote en paralelo: el procesador
+        entonces abre la salida con abrir(destino, ejecutor). */
+    default boolean soportaRenderizadoParalelo() {
+      return false;
+    }
+  }
+
+  /*  Formateo en streaming: en lugar de devolver un String, la salida se
+      escribe en un canal a medida que llegan los lotes, así el tamaño del
+      resultado no está limitado por la memoria. */
+  public interface FormateadorStreaming {
+    SalidaFormateada abrir(WritableByteChannel destino) throws IOException;
+
+    // Como abrir, pero los lotes grandes se pueden renderizar por partes en ejecutor
+    default SalidaFormateada abrir(WritableByteChannel destino, ExecutorService ejecutor) throws IOException {
+      return abrir(destino);
+    }
+  }
+
+  public interface SalidaFormateada extends AutoCloseable {
+    String getFormato();
+
+    // Escribe un lote y hace flush, así el destino ve el progreso lote a lote
+    void escribir(List<Documento> lote) throws IOException;
+
+    // Escribe el cierre del formato y devuelve el buffer al pool
+    @Override
+    void close() throws IOException;
+  }
+
+  /*  Base de las salidas en streaming. Junta las escrituras chicas
+      (encabezados, etiquetas) en un buffer directo que se toma de un pool y
+      se devuelve al cerrar; el contenido grande pasa derecho al canal sin
+      copias intermedias. */
+  abstract static class SalidaStreaming implements SalidaFormateada, WritableByteChannel {
+    private static final int CAPACIDAD = 64 * 1024;
+    private static final BlockingQueue<ByteBuffer> POOL =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final WritableByteChannel destino;
+    private final CharsetEncoder codificador = StandardCharsets.UTF_8.newEncoder();
+    private ByteBuffer buffer;
+    private long escritos;
+
+    protected SalidaStreaming(WritableByteChannel destino) throws IOException {
+      this.destino = destino;
+      ByteBuffer delPool = POOL.poll();
+      this.buffer = delPool != null ? delPool : ByteBuffer.allocateDirect(CAPACIDAD);
+      this.buffer.clear();
+      encabezado();
+    }
+
+    protected abstract void encabezado() throws IOException;
+    protected abstract void documento(Documento documento) throws IOException;
+    protected abstract void pie() throws IOException;
+
+    @Override
+    public void escribir(List<Documento> lote) throws IOException {
+      for (Documento documento : lote) {
+        documento(documento);
+      }
+      flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (buffer == null) {
+        return;
+      }
+      try {
+        pie();
+        flush();
+      } finally {
+        POOL.offer(buffer);
+        buffer = null;
+      }
+    }
+
+    // Bytes escritos hasta ahora (incluye lo que todavía está en el buffer)
+    protected long getEscritos() {
+      return escritos;
+    }
+
+    // Vuelca, detrás de lo que haya en el buffer, un fragmento que se renderizó aparte
+    protected void escribirFragmento(ByteArrayOutputStream fragmento) throws IOException {
+      flush();
+      fragmento.writeTo(Channels.newOutputStream(destino));
+      escritos += fragmento.size();
+    }
+
+    @Override
+    public int write(ByteBuffer origen) throws IOException {
+      int largo = origen.remaining();
+      if (largo >= buffer.capacity()) {
+        flush();
+        while (origen.hasRemaining()) {
+          destino.write(origen);
+        }
+      } else {
+        if (largo > buffer.remaining()) {
+          flush();
+        }
+        buffer.put(origen);
+      }
+      escritos += largo;
+      return largo;
+    }
+
+    protected void escribirByte(int b) throws IOException {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      buffer.put((byte) b);
+      escritos++;
+    }
+
+    protected void escribirTexto(String texto) throws IOException {
+      CharBuffer caracteres = CharBuffer.wrap(texto);
+      codificador.reset();
+      int antes = buffer.position();
+      while (true) {
+        CoderResult resultado = codificador.encode(caracteres, buffer, true);
+        escritos += buffer.position() - antes;
+        if (!resultado.isOverflow()) {
+          break;
+        }
+        flush();
+        antes = buffer.position();
+      }
+    }
 
-      }*/
+    // Contenido del documento en Base64, codificado directo sobre el buffer
+    protected void escribirBase64(Documento documento) throws IOException {
+      CanalBase64 base64 = new CanalBase64();
+      documento.escribirContenido(base64);
+      base64.terminar();
+    }
 
-      /* CÓDIGO ORIGINAL
-      if ("pdf".equalsIgnoreCase(outputFormat)) {
-        return new FormateadorPDF();
-      } else if ("docx".equalsIgnoreCase(outputFormat)) {
-        return new FormateadorDOCX();
-      } else {
-        return new FormateadorHTML();
-      }*/
+    protected void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        destino.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return buffer != null;
+    }
+
+    static String escapar(String texto, boolean xml) {
+      boolean hayQueEscapar = false;
+      for (int i = 0; i < texto.length() && !hayQueEscapar; i++) {
+        char c = texto.charAt(i);
+        hayQueEscapar = xml ? (c == '<' || c == '>' || c == '&' || c == '"') : (c == '(' || c == ')' || c == '\\');
+      }
+      if (!hayQueEscapar) {
+        return texto;
+      }
+      StringBuilder escapado = new StringBuilder(texto.length() + 16);
+      for (int i = 0; i < texto.length(); i++) {
+        char c = texto.charAt(i);
+        if (xml) {
+          switch (c) {
+            case '<' -> escapado.append("&lt;");
+            case '>' -> escapado.append("&gt;");
+            case '&' -> escapado.append("&amp;");
+            case '"' -> escapado.append("&quot;");
+            default -> escapado.append(c);
+          }
+        } else {
+          if (c == '(' || c == ')' || c == '\\') {
+            escapado.append('\\');
+          }
+          escapado.append(c);
+        }
+      }
+      return escapado.toString();
+    }
+
+    private final class CanalBase64 implements WritableByteChannel {
+      private static final String ALFABETO = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+      private int pendiente; // hasta 2 bytes que todavía no completan un grupo de 3
+      private int cantidadPendiente;
+
+      @Override
+      public int write(ByteBuffer origen) throws IOException {
+        int largo = origen.remaining();
+        while (origen.hasRemaining()) {
+          pendiente = (pendiente << 8) | (origen.get() & 0xFF);
+          if (++cantidadPendiente == 3) {
+            escribirByte(ALFABETO.charAt((pendiente >>> 18) & 0x3F));
+            escribirByte(ALFABETO.charAt((pendiente >>> 12) & 0x3F));
+            escribirByte(ALFABETO.charAt((pendiente >>> 6) & 0x3F));
+            escribirByte(ALFABETO.charAt(pendiente & 0x3F));
+            pendiente = 0;
+            cantidadPendiente = 0;
+          }
+        }
+        return largo;
+      }
+
+      void terminar() throws IOException {
+        if (cantidadPendiente == 1) {
+          escribirByte(ALFABETO.charAt((pendiente >>> 2) & 0x3F));
+          escribirByte(ALFABETO.charAt((pendiente << 4) & 0x3F));
+          escribirByte('=');
+          escribirByte('=');
+        } else if (cantidadPendiente == 2) {
+          escribirByte(ALFABETO.charAt((pendiente >>> 10) & 0x3F));
+          escribirByte(ALFABETO.charAt((pendiente >>> 4) & 0x3F));
+          escribirByte(ALFABETO.charAt((pendiente << 2) & 0x3F));
+          escribirByte('=');
+        }
+        pendiente = 0;
+        cantidadPendiente = 0;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    }
+  }
+
+  /*  Cada documento va como un objeto stream con su contenido crudo. Como el
+      largo no se conoce antes de escribir, /Length apunta a un objeto que se
+      escribe después del stream (referencia indirecta, válida en PDF).
+      Si se abrió con un ejecutor, los lotes grandes se cortan en
+      fragmentos (rangos de documentos de hasta FRAGMENTO_MAX_BYTES) que se
+      renderizan en paralelo en ese ejecutor, cada uno en su propia memoria,
+      y se escriben en orden. Como cada documento usa dos objetos, el número del primer
+      objeto de cada fragmento se conoce antes de renderizarlo. Nunca hay
+      más de paralelismo + 1 fragmentos en memoria a la vez.
+      Se guarda la posición en bytes de cada objeto (las de un fragmento,
+      relativas a su inicio, se corren al escribirlo) para armar al final la
+      tabla xref; el pie agrega el catálogo (/Root) con una página vacía,
+      que es lo mínimo que exigen los lectores. */
+  static class SalidaPDF extends SalidaStreaming {
+    static final int UMBRAL_PARALELO = 1024; // documentos por lote
+    static final long FRAGMENTO_MAX_BYTES = 4L * 1024 * 1024;
+    static final int FRAGMENTO_MAX_DOCUMENTOS = 4096;
+
+    private final ExecutorService ejecutor; // null = siempre secuencial
+    private int siguienteObjeto = 1;
+    private int primerObjeto = 1;
+    private long[] posiciones = new long[64]; // posiciones[n - primerObjeto] = byte donde empieza el objeto n
+
+    SalidaPDF(WritableByteChannel destino, ExecutorService ejecutor) throws IOException {
+      super(destino);
+      this.ejecutor = ejecutor;
+    }
+
+    @Override
+    public String getFormato() {
+      return "PDF";
+    }
+
+    @Override
+    protected void encabezado() throws IOException {
+      escribirTexto("%PDF-1.7\n");
+    }
+
+    @Override
+    public void escribir(List<Documento> lote) throws IOException {
+      if (ejecutor == null || lote.size() < UMBRAL_PARALELO) {
+        super.escribir(lote);
+        return;
+      }
+      escribirEnParalelo(lote);
+      siguienteObjeto += 2 * lote.size();
+    }
+
+    @Override
+    protected void documento(Documento documento) throws IOException {
+      int objeto = siguienteObjeto;
+      siguienteObjeto += 2;
+      registrar(objeto, getEscritos());
+      escribirTexto(objeto + " 0 obj\n<< /Type /EmbeddedFile /Subtype /" + documento.getTipo()
+          + " /Name (" + escapar(documento.getNombre(), false) + ") /Length " + (objeto + 1) + " 0 R >>\nstream\n");
+      long inicio = getEscritos();
+      documento.escribirContenido(this);
+      long largo = getEscritos() - inicio;
+      escribirTexto("\nendstream\nendobj\n");
+      registrar(objeto + 1, getEscritos());
+      escribirTexto((objeto + 1) + " 0 obj\n" + largo + "\nendobj\n");
+    }
+
+    @Override
+    protected void pie() throws IOException {
+      int catalogo = siguienteObjeto;
+      int paginas = catalogo + 1;
+      int pagina = catalogo + 2;
+      registrar(catalogo, getEscritos());
+      escribirTexto(catalogo + " 0 obj\n<< /Type /Catalog /Pages " + paginas + " 0 R >>\nendobj\n");
+      registrar(paginas, getEscritos());
+      escribirTexto(paginas + " 0 obj\n<< /Type /Pages /Kids [" + pagina + " 0 R] /Count 1 >>\nendobj\n");
+      registrar(pagina, getEscritos());
+      escribirTexto(pagina + " 0 obj\n<< /Type /Page /Parent " + paginas + " 0 R /MediaBox [0 0 612 792] >>\nendobj\n");
+
+      // Cada entrada de la xref mide exactamente 20 bytes
+      long xref = getEscritos();
+      escribirTexto("xref\n0 " + (pagina + 1) + "\n0000000000 65535 f\r\n");
+      StringBuilder entrada = new StringBuilder(20);
+      for (int objeto = 1; objeto <= pagina; objeto++) {
+        String posicion = Long.toString(posiciones[objeto - 1]);
+        entrada.setLength(0);
+        for (int i = posicion.length(); i < 10; i++) {
+          entrada.append('0');
+        }
+        escribirTexto(entrada.append(posicion).append(" 00000 n\r\n").toString());
+      }
+      escribirTexto("trailer\n<< /Size " + (pagina + 1) + " /Root " + catalogo + " 0 R >>\nstartxref\n"
+          + xref + "\n%%EOF\n");
+    }
+
+    private void registrar(int objeto, long posicion) {
+      int indice = objeto - primerObjeto;
+      if (indice >= posiciones.length) {
+        posiciones = Arrays.copyOf(posiciones, Math.max(posiciones.length * 2, indice + 1));
+      }
+      posiciones[indice] = posicion;
+    }
+
+    // Escribe un fragmento ya renderizado y corre sus posiciones a las de esta salida
+    private void escribirFragmento(FragmentoPDF fragmento) throws IOException {
+      long base = getEscritos();
+      escribirFragmento(fragmento.memoria);
+      SalidaPDF renderizado = fragmento; // los campos privados se leen como SalidaPDF
+      for (int i = 0; i < renderizado.siguienteObjeto - renderizado.primerObjeto; i++) {
+        registrar(renderizado.primerObjeto + i, base + renderizado.posiciones[i]);
+      }
+    }
+
+    private void escribirEnParalelo(List<Documento> lote) throws IOException {
+      int maxEnVuelo = ejecutor instanceof ForkJoinPool
+          ? Math.max(1, ((ForkJoinPool) ejecutor).getParallelism())
+          : Runtime.getRuntime().availableProcessors();
+      ArrayDeque<Future<FragmentoPDF>> enVuelo = new ArrayDeque<>(maxEnVuelo + 1);
+      try {
+        int numero = 0;
+        int desde = 0;
+        while (desde < lote.size()) {
+          int hasta = finDeFragmento(lote, desde);
+          int primerObjeto = siguienteObjeto + 2 * desde;
+          List<Documento> rango = lote.subList(desde, hasta);
+          int numeroFragmento = numero++;
+          enVuelo.add(ejecutor.submit(() -> renderizar(numeroFragmento, rango, primerObjeto)));
+          // Ventana acotada: antes de seguir se escribe el más viejo
+          if (enVuelo.size() > maxEnVuelo) {
+            escribirFragmento(esperar(enVuelo.poll()));
+          }
+          desde = hasta;
+        }
+        while (!enVuelo.isEmpty()) {
+          escribirFragmento(esperar(enVuelo.poll()));
+        }
+      } finally {
+        for (Future<FragmentoPDF> pendiente : enVuelo) {
+          pendiente.cancel(false);
+        }
+      }
+    }
+
+    // Corta por cantidad y por tamaño estimado; un documento más grande que el límite va solo
+    private static int finDeFragmento(List<Documento> lote, int desde) {
+      long bytes = 0;
+      int hasta = desde;
+      while (hasta < lote.size() && hasta - desde < FRAGMENTO_MAX_DOCUMENTOS) {
+        bytes += lote.get(hasta).getTamaño();
+        if (bytes > FRAGMENTO_MAX_BYTES && hasta > desde) {
+          break;
+        }
+        hasta++;
+      }
+      return hasta;
+    }
+
+    private static FragmentoPDF renderizar(int numero, List<Documento> rango, int primerObjeto)
+        throws IOException {
+      long inicio = System.nanoTime();
+      ByteArrayOutputStream memoria = new ByteArrayOutputStream(64 * 1024);
+      FragmentoPDF fragmento = new FragmentoPDF(memoria, primerObjeto);
+      try (fragmento) {
+        fragmento.escribir(rango);
+      }
+      if (NivelTraza.INFO.activo()) {
+        Traza.escribir(NivelTraza.INFO, String.format("[PDF] Fragmento %d: %d documentos, %d bytes en %.3f ms",
+            numero, rango.size(), memoria.size(), (System.nanoTime() - inicio) / 1_000_000.0));
+      }
+      return fragmento;
+    }
+
+    private static FragmentoPDF esperar(Future<FragmentoPDF> fragmento)
+        throws IOException {
+      try {
+        return fragmento.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Renderizado PDF interrumpido");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IllegalStateException("Falló el renderizado de un fragmento PDF", e.getCause());
+      }
+    }
+
+    // Solo los objetos de un rango de documentos, sin encabezado ni trailer; las posiciones son relativas
+    private static final class FragmentoPDF extends SalidaPDF {
+      final ByteArrayOutputStream memoria;
+
+      FragmentoPDF(ByteArrayOutputStream memoria, int primerObjeto) throws IOException {
+        super(Channels.newChannel(memoria), null);
+        this.memoria = memoria;
+        super.siguienteObjeto = primerObjeto;
+        super.primerObjeto = primerObjeto;
+      }
+
+      @Override
+      protected void encabezado() {
+      }
+
+      @Override
+      public void escribir(List<Documento> rango) throws IOException {
+        for (Documento documento : rango) {
+          documento(documento);
+        }
+        flush();
+      }
+
+      @Override
+      protected void pie() {
+      }
+    }
+  }
+
+  // WordprocessingML plano (un solo XML), que a diferencia del .docx zipeado se puede escribir en streaming
+  static class SalidaDOCX extends SalidaStreaming {
+    SalidaDOCX(WritableByteChannel destino) throws IOException {
+      super(destino);
+    }
+
+    @Override
+    public String getFormato() {
+      return "DOCX";
+    }
+
+    @Override
+    protected void encabezado() throws IOException {
+      escribirTexto("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<w:wordDocument xmlns:w=\"http://schemas.microsoft.com/office/word/2003/wordml\"><w:body>\n");
+    }
+
+    @Override
+    protected void documento(Documento documento) throws IOException {
+      escribirTexto("<w:p><w:r><w:t>" + escapar(documento.toString(), true) + "</w:t></w:r></w:p>\n<w:binData w:name=\""
+          + escapar(documento.getNombre(), true) + "\">");
+      escribirBase64(documento);
+      escribirTexto("</w:binData>\n");
+    }
+
+    @Override
+    protected void pie() throws IOException {
+      escribirTexto("</w:body></w:wordDocument>\n");
+    }
+  }
+
+  static class SalidaHTML extends SalidaStreaming {
+    SalidaHTML(WritableByteChannel destino) throws IOException {
+      super(destino);
+    }
+
+    @Override
+    public String getFormato() {
+      return "HTML";
+    }
+
+    @Override
+    protected void encabezado() throws IOException {
+      escribirTexto("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"></head><body>\n");
+    }
+
+    @Override
+    protected void documento(Documento documento) throws IOException {
+      escribirTexto("<section><h2>" + escapar(documento.toString(), true)
+          + "</h2><a download=\"" + escapar(documento.getNombre(), true)
+          + "\" href=\"data:application/octet-stream;base64,");
+      escribirBase64(documento);
+      escribirTexto("\">descargar</a></section>\n");
+    }
+
+    @Override
+    protected void pie() throws IOException {
+      escribirTexto("</body></html>\n");
+    }
+  }
+
+  static class FormateadorPDF implements FormateadorDocumento, FormateadorStreaming {
+    @Override
+    public String getNombre() {
+      return "pdf";
+    }
 
+    // Los lotes grandes se pueden renderizar por fragmentos en paralelo (ver SalidaPDF)
+    @Override
+    public boolean soportaRenderizadoParalelo() {
+      return true;
+    }
+
+    @Override
+    public String formatear(List<Documento> documentos) {
+      if (NivelTraza.INFO.activo()) {
+        Traza.escribir(NivelTraza.INFO, "[PDF] Generando documento PDF con " + documentos.size() + " elementos");
+      }
+      return "PDF";
+    }
+
+    @Override
+    public SalidaFormateada abrir(WritableByteChannel destino) throws IOException {
+      return new SalidaPDF(destino, null);
+    }
+
+    @Override
+    public SalidaFormateada abrir(WritableByteChannel destino, ExecutorService ejecutor) throws IOException {
+      return new SalidaPDF(destino, ejecutor);
+    }
+  }
+
+  static class FormateadorDOCX implements FormateadorDocumento, FormateadorStreaming {
+    @Override
+    public String getNombre() {
+      return "docx";
+    }
+
+    @Override
+    public String formatear(List<Documento> documentos) {
+      if (NivelTraza.INFO.activo()) {
+        Traza.escribir(NivelTraza.INFO, "[DOCX] Generando documento Word con " + documentos.size() + " elementos");
+      }
+      return "DOCX";
+    }
+
+    @Override
+    public SalidaFormateada abrir(WritableByteChannel destino) throws IOException {
+      return new SalidaDOCX(destino);
+    }
+  }
+
+  static class FormateadorHTML implements FormateadorDocumento, FormateadorStreaming {
+    @Override
+    public String getNombre() {
+      return "html";
+    }
+
+    @Override
+    public String formatear(List<Documento> documentos) {
+      if (NivelTraza.INFO.activo()) {
+        Traza.escribir(NivelTraza.INFO, "[HTML] Generando página web con " + documentos.size() + " elementos");
+      }
+      return "HTML";
+    }
+
+    @Override
+    public SalidaFormateada abrir(WritableByteChannel destino) throws IOException {
+      return new SalidaHTML(destino);
+    }
+  }
+
+                        /* FACTORY */
+  static class FormateadorFactory {
+    public static FormateadorDocumento crear(String outputFormat){
+      // Instancias compartidas del registro, sin crear nada por procesador
+      return RegistroFormateadores.obtener(outputFormat);
+    }
+  }
+
+  /*  Registro de formateadores: una instancia compartida por formato. Los
+      propios vienen registrados; otros se descubren con ServiceLoader
+      (META-INF/services/examenes.DocumentProcessor.DocumentProcessorConPatrones$FormateadorDocumento)
+      o se agregan con registrar. La búsqueda recorre un arreglo inmutable
+      comparando con equalsIgnoreCase, así no crea Strings ni toma locks;
+      registrar publica un arreglo nuevo (copy-on-write). */
+  static final class RegistroFormateadores {
+    static final String POR_DEFECTO = "html";
+
+    private static volatile FormateadorDocumento[] formateadores = descubrir();
+
+    private RegistroFormateadores() {}
+
+    private static FormateadorDocumento[] descubrir() {
+      List<FormateadorDocumento> encontrados = new ArrayList<>(
+          List.of(new FormateadorPDF(), new FormateadorDOCX(), new FormateadorHTML()));
+      for (FormateadorDocumento formateador : ServiceLoader.load(FormateadorDocumento.class)) {
+        encontrados.removeIf(existente -> existente.getNombre().equalsIgnoreCase(formateador.getNombre()));
+        encontrados.add(formateador);
+      }
+      return encontrados.toArray(new FormateadorDocumento[0]);
+    }
+
+    // Agrega o reemplaza el formateador con el mismo nombre
+    static synchronized void registrar(FormateadorDocumento formateador) {
+      List<FormateadorDocumento> nuevos = new ArrayList<>(Arrays.asList(formateadores));
+      nuevos.removeIf(existente -> existente.getNombre().equalsIgnoreCase(formateador.getNombre()));
+      nuevos.add(formateador);
+      formateadores = nuevos.toArray(new FormateadorDocumento[0]);
+    }
+
+    // null si no hay ninguno con ese nombre
+    static FormateadorDocumento buscar(String nombre) {
+      for (FormateadorDocumento formateador : formateadores) {
+        if (formateador.getNombre().equalsIgnoreCase(nombre)) {
+          return formateador;
+        }
+      }
+      return null;
+    }
+
+    // Sin nombre se usa HTML; un nombre desconocido es un error, no HTML por las dudas
+    static FormateadorDocumento obtener(String nombre) {
+      FormateadorDocumento formateador = buscar(nombre != null ? nombre : POR_DEFECTO);
+      if (formateador == null) {
+        throw new IllegalArgumentException("Formato desconocido: " + nombre + ". Disponibles: " + getNombres());
+      }
+      return formateador;
+    }
+
+    static List<String> getNombres() {
+      List<String> nombres = new ArrayList<>();
+      for (FormateadorDocumento formateador : formateadores) {
+        nombres.add(formateador.getNombre());
+      }
+      return nombres;
+    }
+  }
+
+                        /* ADAPTER */
+  /*  Adapta CloudStorageAPI para que reciba los documentos del procesador
+      como un listener más. Agrupa los documentos de a tamañoLote por
+      archivo subido, mantiene como mucho enVuelo subidas en curso (si están
+      todas ocupadas, el procesador espera), reintenta con backoff
+      exponencial con jitter y acorta los nombres para no chocar con el
+      límite de 30 caracteres de la API. Cada archivo lleva el número de
+      grupo, así dos documentos con el mismo nombre no se pisan. */
+  static class SubidorNubeAdapter implements DocumentProcessListener {
+    static final int LARGO_MAXIMO_NOMBRE = 30;
+
+    private final CloudStorageAPI api;
+    private final int tamañoLote;
+    private final int maxIntentos;
+    private final long esperaBaseMillis;
+    private final Semaphore enVuelo;
+    private final int maxEnVuelo;
+    private final ExecutorService ejecutor;
+    private final AtomicInteger siguienteLote = new AtomicInteger();
+    private final LongAdder exitosas = new LongAdder();
+    private final LongAdder fallidas = new LongAdder();
+    private final LongAdder reintentos = new LongAdder();
+
+    public SubidorNubeAdapter(CloudStorageAPI api) {
+      this(api, 4, 1, 3, 50);
+    }
+
+    public SubidorNubeAdapter(CloudStorageAPI api, int maxEnVuelo, int tamañoLote, int maxIntentos, long esperaBaseMillis) {
+      if (maxEnVuelo <= 0 || tamañoLote <= 0 || maxIntentos <= 0) {
+        throw new IllegalArgumentException("maxEnVuelo, tamañoLote y maxIntentos deben ser positivos");
+      }
+      this.api = api;
+      this.tamañoLote = tamañoLote;
+      this.maxIntentos = maxIntentos;
+      this.esperaBaseMillis = esperaBaseMillis;
+      this.maxEnVuelo = maxEnVuelo;
+      this.enVuelo = new Semaphore(maxEnVuelo);
+      this.ejecutor = Executors.newFixedThreadPool(maxEnVuelo, tarea -> {
+        Thread hilo = new Thread(tarea, "subidor-nube");
+        hilo.setDaemon(true);
+        return hilo;
+      });
+    }
+
+    // El contenido se serializa acá mismo, en el hilo que notifica; el ejecutor solo sube
+    @Override
+    public void onProcessCompleted(List<Documento> documentos, String formato) {
+      for (int desde = 0; desde < documentos.size(); desde += tamañoLote) {
+        List<Documento> grupo = documentos.subList(desde, Math.min(desde + tamañoLote, documentos.size()));
+        String nombre = nombreArchivo(grupo, formato);
+        String contenido = serializar(grupo);
+
+        enVuelo.acquireUninterruptibly();
+        try {
+          ejecutor.execute(() -> {
+            try {
+              subirConReintentos(nombre, contenido);
+            } finally {
+              enVuelo.release();
+            }
+          });
+        } catch (RuntimeException e) {
+          enVuelo.release();
+          throw e;
+        }
+      }
+    }
+
+    private void subirConReintentos(String nombre, String contenido) {
+      for (int intento = 1; intento <= maxIntentos; intento++) {
+        try {
+          if (api.uploadFile(nombre, contenido)) {
+            exitosas.increment();
+            return;
+          }
+        } catch (RuntimeException e) {
+          if (NivelTraza.AVISO.activo()) {
+            Traza.escribir(NivelTraza.AVISO, "[Subidor] Error subiendo " + nombre + ": " + e.getMessage());
+          }
+        }
+        if (intento < maxIntentos) {
+          reintentos.increment();
+          esperarBackoff(intento);
+        }
+      }
+      fallidas.increment();
+    }
+
+    // Full jitter: espera al azar entre 0 y base * 2^(intento-1), con tope de 5 s
+    private void esperarBackoff(int intento) {
+      long tope = Math.min(5_000, esperaBaseMillis << Math.min(intento - 1, 20));
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextLong(tope + 1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private String nombreArchivo(List<Documento> grupo, String formato) {
+      String extension = "." + formato.toLowerCase(Locale.ROOT);
+      String base = grupo.size() == 1 ? grupo.get(0).getNombre() : "lote";
+      if (base.endsWith(extension)) {
+        base = base.substring(0, base.length() - extension.length());
+      }
+      return acortarNombre(base + "-" + siguienteLote.getAndIncrement() + extension);
+    }
+
+    /*  Si el nombre supera el límite, se recorta el principio y se agrega un
+        hash del nombre completo, así dos nombres largos distintos no quedan
+        iguales al recortarlos. La extensión se conserva. */
+    static String acortarNombre(String nombre) {
+      if (nombre.length() <= LARGO_MAXIMO_NOMBRE) {
+        return nombre;
+      }
+      int punto = nombre.lastIndexOf('.');
+      String extension = punto > 0 && nombre.length() - punto <= 6 ? nombre.substring(punto) : "";
+      String hash = String.format("%08x", nombre.hashCode());
+      int largoPrefijo = LARGO_MAXIMO_NOMBRE - extension.length() - hash.length() - 1;
+      return nombre.substring(0, largoPrefijo) + "-" + hash + extension;
+    }
+
+    private static String serializar(List<Documento> grupo) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        for (Documento documento : grupo) {
+          documento.escribirContenido(Channels.newChannel(bytes));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    // Espera a que terminen las subidas en curso
+    public void esperar() {
+      enVuelo.acquireUninterruptibly(maxEnVuelo);
+      enVuelo.release(maxEnVuelo);
+    }
+
+    public void cerrar() {
+      esperar();
+      ejecutor.shutdown();
+    }
+
+    public long getExitosas() {
+      return exitosas.sum();
+    }
+
+    public long getFallidas() {
+      return fallidas.sum();
+    }
+
+    public long getReintentos() {
+      return reintentos.sum();
     }
   }
 
@@ -380,4 +3213,50 @@ public class DocumentProcessorConPatrones {
       return fileName.length() <= 30;
     }
   }
+
+  /*  Doble de CloudStorageAPI en memoria para probar el adapter (ver
+      PruebaSubidorNube): agrega una latencia fija y falla al azar con la
+      probabilidad indicada. Cuenta las subidas simultáneas para verificar
+      el límite de subidas en curso. */
+  static class CloudStorageAPIFalsa extends CloudStorageAPI {
+    private final long latenciaMillis;
+    private final double probabilidadFallo;
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private final AtomicInteger maximoEnCurso = new AtomicInteger();
+    private final Map<String, String> archivos = new ConcurrentHashMap<>();
+
+    CloudStorageAPIFalsa(long latenciaMillis, double probabilidadFallo) {
+      this.latenciaMillis = latenciaMillis;
+      this.probabilidadFallo = probabilidadFallo;
+    }
+
+    @Override
+    public boolean uploadFile(String fileName, String content) {
+      maximoEnCurso.accumulateAndGet(enCurso.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(latenciaMillis);
+        if (ThreadLocalRandom.current().nextDouble() < probabilidadFallo) {
+          return false;
+        }
+        if (fileName.length() > 30) {
+          return false;
+        }
+        archivos.put(fileName, content);
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } finally {
+        enCurso.decrementAndGet();
+      }
+    }
+
+    int getMaximoEnCurso() {
+      return maximoEnCurso.get();
+    }
+
+    Map<String, String> getArchivos() {
+      return archivos;
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package examenes.DocumentProcessor;
+
+import java.util.*;
+
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.CloudStorageAPIFalsa;
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.Documento;
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.DocumentoTexto;
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.SubidorNubeAdapter;
+
+/*  Verifica SubidorNubeAdapter contra CloudStorageAPIFalsa: nunca hay más
+    subidas en curso que las permitidas, cada grupo termina subido o contado
+    como fallido, y documentos con el mismo nombre no se pisan en la nube.
+    Todos los documentos se llaman igual a propósito.
+    Uso: java examenes.DocumentProcessor.PruebaSubidorNube [documentos] [probabilidad de fallo] */
+public class PruebaSubidorNube {
+
+  public static void main(String[] args) {
+    int cantidad = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    double probabilidadFallo = args.length > 1 ? Double.parseDouble(args[1]) : 0.2;
+    int maxEnVuelo = 4;
+    int tamañoLote = 1;
+
+    CloudStorageAPIFalsa api = new CloudStorageAPIFalsa(2, probabilidadFallo);
+    SubidorNubeAdapter subidor = new SubidorNubeAdapter(api, maxEnVuelo, tamañoLote, 5, 1);
+    List<Documento> documentos = new ArrayList<>(cantidad);
+    for (int i = 0; i < cantidad; i++) {
+      documentos.add(new DocumentoTexto("informe", "contenido " + i));
+    }
+    subidor.onProcessCompleted(documentos, "html");
+    subidor.cerrar();
+
+    int grupos = (cantidad + tamañoLote - 1) / tamañoLote;
+    verificar(api.getMaximoEnCurso() <= maxEnVuelo,
+        "Hubo " + api.getMaximoEnCurso() + " subidas en curso; el límite es " + maxEnVuelo);
+    verificar(subidor.getExitosas() + subidor.getFallidas() == grupos,
+        "Se contaron " + (subidor.getExitosas() + subidor.getFallidas()) + " de " + grupos + " grupos");
+    verificar(api.getArchivos().size() == subidor.getExitosas(),
+        "Hay " + api.getArchivos().size() + " archivos para " + subidor.getExitosas() + " subidas exitosas");
+
+    System.out.printf("[Subidor] %d grupos: %d exitosos, %d fallidos, %d reintentos, hasta %d en curso%n",
+        grupos, subidor.getExitosas(), subidor.getFallidas(), subidor.getReintentos(), api.getMaximoEnCurso());
+  }
+
+  private static void verificar(boolean condicion, String mensaje) {
+    if (!condicion) {
+      throw new IllegalStateException(mensaje);
+    }
+  }
+}
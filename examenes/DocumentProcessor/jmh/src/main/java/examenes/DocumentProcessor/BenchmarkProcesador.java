@@ -0,0 +1,248 @@
+package examenes.DocumentProcessor;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import examenes.DocumentProcessor.DocumentProcessorConPatrones.*;
+
+/*  Benchmarks JMH del procesador de documentos, uno por escenario:
+      - Tamaño: getTamaño() según la profundidad de la cadena de decorators.
+      - Throughput: procesar con 1, 10k y 1M documentos.
+      - Formateadores: cada FormateadorDocumento, en memoria y en streaming.
+      - Configuraciones: costo de build() y de procesar para cada
+        combinación del ProcesadorDocumentosBuilder.
+    Los tipos del procesador son privados del paquete, por eso estas clases
+    van en el mismo paquete, pero en el módulo Maven de jmh/: así el resto
+    del ejemplo sigue compilando sin JMH en el classpath. Los nombres de los
+    métodos @Benchmark van sin ñ porque JMH genera un archivo por método.
+
+    Compilar y correr (ver jmh/pom.xml):
+      mvn -B -f examenes/DocumentProcessor/jmh/pom.xml package
+      java -cp examenes/DocumentProcessor/jmh/target/benchmarks.jar \
+          examenes.DocumentProcessor.BenchmarkProcesador [filtro]
+    main activa el profiler de GC (gc.alloc.rate.norm = bytes asignados por
+    operación) y deja los resultados en jmh-resultados.json, que CI guarda
+    para compararlos con la corrida anterior. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkProcesador {
+
+  public static void main(String[] args) throws RunnerException {
+    String filtro = args.length > 0 ? args[0] : BenchmarkProcesador.class.getSimpleName();
+    Options opciones = new OptionsBuilder()
+        .include(filtro)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result("jmh-resultados.json")
+        .build();
+    new Runner(opciones).run();
+  }
+
+  // ===================== Tamaño =====================
+
+  @State(Scope.Benchmark)
+  public static class EstadoCadena {
+    /*  Cantidad de decorators apilados sobre el documento base, en el orden
+        en que los compila el procesador: compresión, encriptación, marca de
+        agua. Cada transformación aparece una sola vez, así la cadena y la
+        transformación compilada hacen exactamente el mismo trabajo. */
+    @Param({"0", "1", "2", "3"})
+    public int profundidad;
+
+    Documento cadena;
+    Documento compilado;
+
+    @Setup
+    public void preparar() {
+      Traza.configurar(NivelTraza.APAGADO, Traza.CONSOLA);
+      EncriptadorAES encriptador = EncriptadorAES.conClaveAleatoria();
+      Documento base = new DocumentoTexto("benchmark.txt", texto(4 * 1024));
+
+      cadena = base;
+      if (profundidad > 0) {
+        cadena = new DocumentoCompresion(cadena);
+      }
+      if (profundidad > 1) {
+        cadena = new DocumentoEncriptado(cadena, encriptador);
+      }
+      if (profundidad > 2) {
+        cadena = new DocumentoMarcaDeAgua(cadena);
+      }
+      compilado = new DocumentoTransformado(base, TransformacionCompilada.compilar(
+          profundidad > 0 ? NivelCompresion.EQUILIBRADA : null,
+          profundidad > 1 ? encriptador : null,
+          profundidad > 2));
+
+      // La primera llamada comprime; se mide el tamaño ya resuelto
+      cadena.getTamaño();
+      compilado.getTamaño();
+    }
+  }
+
+  @Benchmark
+  public long tamanoCadenaDecorators(EstadoCadena estado) {
+    return estado.cadena.getTamaño();
+  }
+
+  @Benchmark
+  public long tamanoTransformacionCompilada(EstadoCadena estado) {
+    return estado.compilado.getTamaño();
+  }
+
+  // ===================== Throughput de procesar =====================
+
+  @State(Scope.Benchmark)
+  public static class EstadoThroughput {
+    @Param({"1", "10000", "1000000"})
+    public int cantidad;
+
+    List<Documento> documentos;
+    ProcesadorDocumentos procesador;
+
+    @Setup
+    public void preparar() {
+      Traza.configurar(NivelTraza.APAGADO, Traza.CONSOLA);
+      documentos = documentos(cantidad);
+      procesador = new ProcesadorDocumentosBuilder()
+          .conMarcaDeAgua()
+          .conFormateador("html")
+          .build();
+    }
+  }
+
+  // Con 1M documentos una operación tarda segundos: se mide una sola pasada por iteración
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public void procesarLista(EstadoThroughput estado) {
+    estado.procesador.procesar(estado.documentos);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public void procesarStreaming(EstadoThroughput estado) {
+    estado.procesador.procesar(estado.documentos.iterator(), 1000);
+  }
+
+  // ===================== Formateadores =====================
+
+  @State(Scope.Benchmark)
+  public static class EstadoFormateador {
+    @Param({"pdf", "docx", "html"})
+    public String formato;
+
+    List<Documento> documentos;
+    FormateadorDocumento formateador;
+    WritableByteChannel descarte;
+
+    @Setup
+    public void preparar() {
+      Traza.configurar(NivelTraza.APAGADO, Traza.CONSOLA);
+      documentos = documentos(100);
+      formateador = FormateadorFactory.crear(formato);
+      descarte = new CanalDescarte();
+    }
+  }
+
+  @Benchmark
+  public String formatear(EstadoFormateador estado) {
+    return estado.formateador.formatear(estado.documentos);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void formatearStreaming(EstadoFormateador estado) throws IOException {
+    try (SalidaFormateada salida = ((FormateadorStreaming) estado.formateador).abrir(estado.descarte)) {
+      salida.escribir(estado.documentos);
+    }
+  }
+
+  // ===================== Configuraciones del builder =====================
+
+  @State(Scope.Benchmark)
+  public static class EstadoConfiguracion {
+    @Param({"ninguna", "marca", "compresion", "encriptacion", "todas"})
+    public String configuracion;
+
+    List<Documento> documentos;
+    ProcesadorDocumentos procesador;
+
+    @Setup
+    public void preparar() {
+      Traza.configurar(NivelTraza.APAGADO, Traza.CONSOLA);
+      documentos = documentos(1000);
+      procesador = construir(configuracion);
+    }
+  }
+
+  // Incluye compilar las transformaciones y, con encriptación, generar la clave
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void construirProcesador(EstadoConfiguracion estado, Blackhole agujero) {
+    agujero.consume(construir(estado.configuracion));
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void procesarConConfiguracion(EstadoConfiguracion estado) {
+    estado.procesador.procesar(estado.documentos);
+  }
+
+  // ===================== Auxiliares =====================
+
+  static ProcesadorDocumentos construir(String configuracion) {
+    ProcesadorDocumentosBuilder builder = new ProcesadorDocumentosBuilder().conFormateador("html");
+    switch (configuracion) {
+      case "marca" -> builder.conMarcaDeAgua();
+      case "compresion" -> builder.conCompresion();
+      case "encriptacion" -> builder.conEncriptacion();
+      case "todas" -> builder.conCompresion().conEncriptacion().conMarcaDeAgua();
+      default -> { }
+    }
+    return builder.build();
+  }
+
+  // Mitad textos, mitad imágenes con datos, para que compresión y cifrado trabajen de verdad
+  static List<Documento> documentos(int cantidad) {
+    Random aleatorio = new Random(42);
+    String contenido = texto(1024);
+    byte[] datos = new byte[1024];
+    aleatorio.nextBytes(datos);
+
+    List<Documento> documentos = new ArrayList<>(cantidad);
+    for (int i = 0; i < cantidad; i++) {
+      documentos.add(i % 2 == 0
+          ? new DocumentoTexto("texto-" + i + ".txt", contenido)
+          : new DocumentoImagen("imagen-" + i + ".png", datos));
+    }
+    return documentos;
+  }
+
+  static String texto(int largo) {
+    StringBuilder texto = new StringBuilder(largo);
+    while (texto.length() < largo) {
+      texto.append("Este es el contenido del reporte mensual. ");
+    }
+    texto.setLength(largo);
+    return texto.toString();
+  }
+}
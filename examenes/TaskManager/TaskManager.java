@@ -1,5 +1,28 @@
 package examenes.TaskManager;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class TaskManager {
 
@@ -12,6 +35,8 @@ public class TaskManager {
     GestorTareas gestor = new GestorTareas();
     gestor.agregarTarea(tarea1);
     gestor.agregarTarea(tarea2);
+    // Con dependencias (solo las acepta la estrategia "dag"; las demás se niegan a ejecutarlas):
+    // gestor.agregarTarea(tarea2, tarea1);
     
     LoggerListener loggerListener = LoggerListener.getInstance();
     BackupListener backupListener = new BackupListener();
@@ -23,13 +48,17 @@ public class TaskManager {
     gestor.addListener(notificationListener);
     
     // Seleccionar estrategia de ejecución
-    String tipoEjecucion = "paralelo"; // puede ser "secuencial", "paralelo", "por-prioridad"
+    String tipoEjecucion = "paralelo"; // puede ser "secuencial", "paralelo", "makespan", "dag", "por-prioridad"
     EstrategiaEjecucion estrategia;
     
     if ("secuencial".equalsIgnoreCase(tipoEjecucion)) {
       estrategia = new EjecucionSecuencial();
     } else if ("paralelo".equalsIgnoreCase(tipoEjecucion)) {
       estrategia = new EjecucionParalela();
+    } else if ("makespan".equalsIgnoreCase(tipoEjecucion)) {
+      estrategia = new EjecucionPorMakespan();
+    } else if ("dag".equalsIgnoreCase(tipoEjecucion)) {
+      estrategia = new EjecucionDAG(PoliticaFallo.CONTINUAR);
     } else {
       estrategia = new EjecucionPorPrioridad();
     }
@@ -38,7 +67,9 @@ public class TaskManager {
     
     // Ejecutar tareas
     gestor.mostrarResumen();
-    gestor.ejecutarTareas();
+    ResultadoEjecucion resultado = gestor.ejecutarTareas();
+    System.out.println(resultado);
+    estrategia.cerrar();
     
     // Usar servicio externo de reportes
     ReportingServiceAPI reportingAPI = new ReportingServiceAPI();
@@ -62,11 +93,27 @@ public class TaskManager {
     }
   }
 
+  enum EstadoTarea {
+    PENDIENTE, EJECUTANDO, COMPLETADA
+  }
+
   abstract static class Tarea {
+    // El estado cambia solo por CAS, sin locks: así dos hilos nunca ejecutan la misma tarea a la vez
+    private static final VarHandle ESTADO;
+    private static final EstadoTarea[] ESTADOS = EstadoTarea.values();
+
+    static {
+      try {
+        ESTADO = MethodHandles.lookup().findVarHandle(Tarea.class, "estado", int.class);
+      } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
     protected final String nombre;
     protected final String descripcion;
     protected final Prioridad prioridad;
-    protected boolean completada = false;
+    private volatile int estado = EstadoTarea.PENDIENTE.ordinal();
     
     public Tarea(String nombre, String descripcion, Prioridad prioridad) {
       this.nombre = nombre;
@@ -87,7 +134,32 @@ public class TaskManager {
     }
     
     public boolean isCompletada() {
-      return completada;
+      return estado == EstadoTarea.COMPLETADA.ordinal();
+    }
+
+    public EstadoTarea getEstado() {
+      return ESTADOS[estado];
+    }
+
+    // PENDIENTE o COMPLETADA → EJECUTANDO; false si otro hilo ya la está ejecutando
+    boolean iniciar() {
+      int actual;
+      do {
+        actual = estado;
+        if (actual == EstadoTarea.EJECUTANDO.ordinal()) {
+          return false;
+        }
+      } while (!ESTADO.compareAndSet(this, actual, EstadoTarea.EJECUTANDO.ordinal()));
+      return true;
+    }
+
+    void completar() {
+      estado = EstadoTarea.COMPLETADA.ordinal();
+    }
+
+    // Tras una falla vuelve a PENDIENTE, así se puede reintentar
+    void fallar() {
+      estado = EstadoTarea.PENDIENTE.ordinal();
     }
     
     public abstract int getTiempoEstimado();
@@ -100,13 +172,12 @@ public class TaskManager {
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       }
-      completada = true;
       System.out.println("Tarea completada: " + nombre);
     }
     
     @Override
     public String toString() {
-      return nombre + " [" + prioridad + "] - " + (completada ? "COMPLETADA" : "PENDIENTE");
+      return nombre + " [" + prioridad + "] - " + getEstado();
     }
   }
 
@@ -138,12 +209,35 @@ public class TaskManager {
   // ===================== GESTOR DE TAREAS =====================
 
   static class GestorTareas {
-    private final List<Tarea> tareas = new ArrayList<>();
+    private final RegistroTareas tareas = new RegistroTareas();
+    private final GrafoDependencias dependencias = new GrafoDependencias();
     private EstrategiaEjecucion estrategiaEjecucion;
-    private final List<TaskListener> listeners = new ArrayList<>();
+    // Los recorre el hilo del despachador mientras se pueden seguir agregando
+    private final List<TaskListener> listeners = new CopyOnWriteArrayList<>();
+    private final DespachadorEventos despachador = new DespachadorEventos(listeners);
     
+    // Se puede llamar desde cualquier hilo, incluso mientras se ejecutan las tareas
     public void agregarTarea(Tarea tarea) {
-      tareas.add(tarea);
+      tareas.agregar(tarea);
+    }
+
+    /*  Agrega la tarea (si no estaba) indicando de qué tareas depende; las
+        dependencias que todavía no estaban también se agregan. Si con esto
+        se formara un ciclo, lanza IllegalArgumentException sin agregar nada. */
+    public void agregarTarea(Tarea tarea, Tarea... dependeDe) {
+      dependencias.agregar(tarea, Arrays.asList(dependeDe));
+      for (Tarea dependencia : dependeDe) {
+        tareas.agregarSiFalta(dependencia);
+      }
+      tareas.agregarSiFalta(tarea);
+    }
+
+    public Tarea buscarTarea(String nombre) {
+      return tareas.buscar(nombre);
+    }
+
+    public GrafoDependencias getDependencias() {
+      return dependencias;
     }
     
     public void setEstrategiaEjecucion(EstrategiaEjecucion estrategia) {
@@ -156,12 +250,12 @@ public class TaskManager {
     
     public void mostrarResumen() {
       System.out.println("=== RESUMEN DE TAREAS ===");
-      System.out.println("Total de tareas: " + tareas.size());
+      System.out.println("Total de tareas: " + tareas.tamaño());
       System.out.println("Notificaciones: " + (findInListeners("notificacion") ? "Activadas" : "Desactivadas"));
       System.out.println("Logging: " + (findInListeners("logger") ? "Activado" : "Desactivado"));
       System.out.println("Backup: " + (findInListeners("backup") ? "Activado" : "Desactivado"));
       
-      int tiempoTotal = tareas.stream().mapToInt(Tarea::getTiempoEstimado).sum();
+      int tiempoTotal = tareas.getTareas().stream().mapToInt(Tarea::getTiempoEstimado).sum();
       System.out.println("Tiempo estimado total: " + tiempoTotal + " minutos");
     }
 
@@ -175,41 +269,177 @@ public class TaskManager {
       return found;
     }
     
-    public void ejecutarTareas() {
+    // ALL_COMPLETED se notifica cuando la estrategia terminó de verdad con todas las tareas
+    public ResultadoEjecucion ejecutarTareas() {
       if (estrategiaEjecucion == null) {
         System.out.println("No hay estrategia de ejecución configurada.");
-        return;
+        return ResultadoEjecucion.VACIO;
       }
       
       System.out.println("=== INICIANDO EJECUCIÓN ===");
-      
+
+      // Se ejecutan las tareas registradas hasta este momento
+      List<Tarea> tareas = this.tareas.getTareas();
       notifyEvent(new TaskEvent(TaskType.EXECUTION_START, tareas));
+      // Lo previo a la ejecución (p. ej. el respaldo) tiene que terminar antes de arrancar
+      despachador.esperarVacio();
+      for (Tarea tarea : tareas) {
+        notifyEvent(TaskEvent.encolada(tarea));
+      }
 
-      estrategiaEjecucion.ejecutar(tareas);
+      estrategiaEjecucion.setEventos(despachador);
+      ResultadoEjecucion resultado = estrategiaEjecucion.ejecutar(tareas, dependencias);
 
       notifyEvent(new TaskEvent(TaskType.ALL_COMPLETED, tareas));
+      // Los listeners corren aparte; se espera que terminen antes de devolver el resultado
+      despachador.esperarVacio();
+      return resultado;
     }
 
+    // No bloquea: el evento se encola y lo entrega el hilo del despachador
     public void notifyEvent(TaskEvent event){
-      for (TaskListener listener : this.listeners){
-        listener.onEvent(event);
-      }
+      despachador.publicar(event);
     }
     
+    // Foto de las tareas registradas hasta ahora; las que se agreguen después no aparecen
     public List<Tarea> getTareas() { 
-      return Collections.unmodifiableList(tareas);
+      return tareas.getTareas();
+    }
+  }
+
+  /*  Registro concurrente de tareas. Las tareas se guardan en orden de
+      llegada en segmentos de tamaño fijo que se crean a medida que hacen
+      falta (así entran millones sin copiar arreglos al crecer): agregar
+      reserva un lugar con un getAndIncrement y crea el segmento por CAS.
+      El índice por nombre es un ConcurrentHashMap, repartido internamente
+      en muchos bins, cuyas lecturas no toman locks. Ni buscar ni recorrer
+      bloquean, y se puede agregar mientras otros hilos ejecutan o leen.
+      Cada instancia se registra una sola vez, aunque se agregue de nuevo. */
+  static class RegistroTareas {
+    private static final int BITS_SEGMENTO = 14; // 16K tareas por segmento
+    private static final int TAMAÑO_SEGMENTO = 1 << BITS_SEGMENTO;
+    private static final int MAX_SEGMENTOS = 1 << 12; // hasta ~67 millones de tareas
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Tarea>> segmentos =
+        new AtomicReferenceArray<>(MAX_SEGMENTOS);
+    private final AtomicInteger reservadas = new AtomicInteger();
+    // Tarea no redefine equals: el conjunto distingue instancias, no nombres
+    private final Set<Tarea> registradas = ConcurrentHashMap.newKeySet();
+    // Con nombres repetidos, buscar devuelve la primera que se registró
+    private final ConcurrentHashMap<String, Tarea> porNombre = new ConcurrentHashMap<>();
+
+    void agregar(Tarea tarea) {
+      agregarSiFalta(tarea);
+    }
+
+    /*  Agrega la tarea solo si esa misma instancia no estaba. Decide el add
+        del conjunto, antes de reservar: si dos hilos agregan la misma tarea
+        a la vez, solo uno reserva su lugar. Una tarea distinta con el nombre
+        de otra ya registrada se agrega igual. */
+    boolean agregarSiFalta(Tarea tarea) {
+      if (!registradas.add(tarea)) {
+        return false;
+      }
+      try {
+        reservar(tarea);
+      } catch (IllegalStateException e) {
+        registradas.remove(tarea);
+        throw e;
+      }
+      porNombre.putIfAbsent(tarea.getNombre(), tarea);
+      return true;
+    }
+
+    private void reservar(Tarea tarea) {
+      int indice = reservadas.getAndIncrement();
+      if (indice < 0 || indice >>> BITS_SEGMENTO >= MAX_SEGMENTOS) {
+        reservadas.decrementAndGet();
+        throw new IllegalStateException("El registro de tareas está lleno");
+      }
+      segmento(indice >>> BITS_SEGMENTO).set(indice & (TAMAÑO_SEGMENTO - 1), tarea);
+    }
+
+    private AtomicReferenceArray<Tarea> segmento(int numero) {
+      AtomicReferenceArray<Tarea> segmento = segmentos.get(numero);
+      if (segmento == null) {
+        segmentos.compareAndSet(numero, null, new AtomicReferenceArray<>(TAMAÑO_SEGMENTO));
+        segmento = segmentos.get(numero);
+      }
+      return segmento;
+    }
+
+    Tarea buscar(String nombre) {
+      return porNombre.get(nombre);
+    }
+
+    int tamaño() {
+      return reservadas.get();
+    }
+
+    // Vista de solo lectura de las tareas agregadas hasta ahora, sin copiarlas
+    List<Tarea> getTareas() {
+      int tamaño = tamaño();
+      return new AbstractList<Tarea>() {
+        @Override
+        public Tarea get(int indice) {
+          Objects.checkIndex(indice, tamaño);
+          AtomicReferenceArray<Tarea> segmento = segmentos.get(indice >>> BITS_SEGMENTO);
+          while (segmento == null) { // el lugar ya está reservado: el segmento aparece enseguida
+            Thread.onSpinWait();
+            segmento = segmentos.get(indice >>> BITS_SEGMENTO);
+          }
+          Tarea tarea = segmento.get(indice & (TAMAÑO_SEGMENTO - 1));
+          while (tarea == null) { // reservada pero todavía sin escribir
+            Thread.onSpinWait();
+            tarea = segmento.get(indice & (TAMAÑO_SEGMENTO - 1));
+          }
+          return tarea;
+        }
+
+        @Override
+        public int size() {
+          return tamaño;
+        }
+      };
     }
   }
   
   // ===================== Listeners =====================
 
   static class TaskEvent {
-    private TaskType type;
-    private List<Tarea> tareas;
+    private final TaskType type;
+    private final List<Tarea> tareas;
+    private final long instanteNanos; // System.nanoTime() al crearse el evento
+    private final long duracionNanos; // solo TASK_COMPLETED / TASK_FAILED
+    private final RuntimeException error; // solo TASK_FAILED
 
     public TaskEvent (TaskType type, List<Tarea> tareas) {
+      this(type, tareas, 0, null);
+    }
+
+    private TaskEvent(TaskType type, List<Tarea> tareas, long duracionNanos, RuntimeException error) {
       this.type = type;
       this.tareas = tareas;
+      this.instanteNanos = System.nanoTime();
+      this.duracionNanos = duracionNanos;
+      this.error = error;
+    }
+
+    static TaskEvent encolada(Tarea tarea) {
+      return new TaskEvent(TaskType.TASK_QUEUED, List.of(tarea));
+    }
+
+    static TaskEvent iniciada(Tarea tarea) {
+      return new TaskEvent(TaskType.TASK_STARTED, List.of(tarea));
+    }
+
+    static TaskEvent terminada(ResultadoTarea resultado) {
+      TaskType tipo = resultado.isExitosa() ? TaskType.TASK_COMPLETED : TaskType.TASK_FAILED;
+      return new TaskEvent(tipo, List.of(resultado.getTarea()), resultado.getNanos(), resultado.getError());
+    }
+
+    public TaskType getType(){
+      return this.type;
     }
 
     public int getTareasSize(){
@@ -219,16 +449,109 @@ public class TaskManager {
     public List<Tarea> getTareas(){
       return this.tareas;
     }
+
+    // La tarea de un evento por tarea (TASK_*)
+    public Tarea getTarea(){
+      return this.tareas.get(0);
+    }
+
+    public long getInstanteNanos(){
+      return this.instanteNanos;
+    }
+
+    public long getDuracionNanos(){
+      return this.duracionNanos;
+    }
+
+    public RuntimeException getError(){
+      return this.error;
+    }
   }
 
   enum TaskType {
-    EXECUTION_START, ALL_COMPLETED
+    EXECUTION_START, ALL_COMPLETED,
+    // Por tarea, con instante y (al terminar) duración
+    TASK_QUEUED, TASK_STARTED, TASK_COMPLETED, TASK_FAILED
   }
 
   interface TaskListener {
     void onEvent(TaskEvent event);
   }
 
+  /*  Entrega los eventos a los listeners desde un hilo propio, así los
+      trabajadores nunca esperan a un listener. Los productores solo hacen
+      offer en una ConcurrentLinkedQueue (sin locks, muchos productores) y
+      despiertan al despachador con unpark si estaba dormido. */
+  static class DespachadorEventos {
+    private static final long SIESTA_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // solo para esperarVacio
+
+    private final List<TaskListener> listeners;
+    private final ConcurrentLinkedQueue<TaskEvent> cola = new ConcurrentLinkedQueue<>();
+    private final AtomicLong publicados = new AtomicLong();
+    private final AtomicBoolean iniciado = new AtomicBoolean();
+    private volatile long despachados;
+    private volatile boolean durmiendo;
+    private volatile Thread hilo;
+
+    DespachadorEventos(List<TaskListener> listeners) {
+      this.listeners = listeners;
+    }
+
+    public void publicar(TaskEvent evento) {
+      if (listeners.isEmpty()) {
+        return;
+      }
+      iniciarSiHaceFalta();
+      publicados.incrementAndGet();
+      cola.offer(evento);
+      if (durmiendo) {
+        LockSupport.unpark(hilo);
+      }
+    }
+
+    // Espera (sin bloquear a nadie más) a que se entregue todo lo publicado hasta ahora
+    public void esperarVacio() {
+      long objetivo = publicados.get();
+      while (despachados < objetivo) {
+        LockSupport.parkNanos(SIESTA_NANOS);
+      }
+    }
+
+    private void iniciarSiHaceFalta() {
+      if (!iniciado.get() && iniciado.compareAndSet(false, true)) {
+        Thread despachador = new Thread(this::despachar, "despachador-eventos");
+        despachador.setDaemon(true);
+        hilo = despachador;
+        despachador.start();
+      }
+    }
+
+    private void despachar() {
+      while (true) {
+        TaskEvent evento = cola.poll();
+        if (evento == null) {
+          durmiendo = true;
+          /* Se vuelve a mirar después de avisar: o se ve el evento, o quien lo
+             publicó ve durmiendo y hace unpark (el permiso queda aunque llegue
+             antes del park). Así se duerme sin plazo y sin despertar en vano. */
+          if (cola.isEmpty()) {
+            LockSupport.park(this);
+          }
+          durmiendo = false;
+          continue;
+        }
+        for (TaskListener listener : listeners) {
+          try {
+            listener.onEvent(evento);
+          } catch (RuntimeException e) {
+            System.out.println("[EVENTOS] Falló " + listener.getClass().getSimpleName() + ": " + e);
+          }
+        }
+        despachados++; // un solo hilo escribe
+      }
+    }
+  }
+
   static class LoggerListener implements TaskListener {
     private static LoggerListener instance;
 
@@ -248,6 +571,15 @@ public class TaskManager {
         System.out.println("[LOG] Iniciando ejecución de " + event.getTareasSize() + " tareas");
       }
 
+      if (event.type == TaskType.TASK_COMPLETED){
+        System.out.printf("[LOG] Tarea %s completada en %.1f ms%n",
+            event.getTarea().getNombre(), event.getDuracionNanos() / 1_000_000.0);
+      }
+
+      if (event.type == TaskType.TASK_FAILED){
+        System.out.println("[LOG] Tarea " + event.getTarea().getNombre() + " falló: " + event.getError().getMessage());
+      }
+
       if (event.type == TaskType.ALL_COMPLETED){
         System.out.println("[LOG] Ejecución finalizada");
       }
@@ -274,54 +606,923 @@ public class TaskManager {
         long completadas = event.getTareas().stream().filter(Tarea::isCompletada).count();
         System.out.println("[NOTIFICACIÓN] Se completaron " + completadas + " de " + event.getTareas().size() + " tareas");
       }
+
+      if (event.type == TaskType.TASK_FAILED){
+        System.out.println("[NOTIFICACIÓN] Falló la tarea " + event.getTarea().getNombre());
+      }
     }
     
   }
 
 
+  // ===================== RESULTADOS =====================
+
+  // Cómo terminó una tarea: si falló, con qué excepción, y cuánto tardó
+  static class ResultadoTarea {
+    private final Tarea tarea;
+    private final RuntimeException error; // null = completada
+    private final long nanos;
+
+    ResultadoTarea(Tarea tarea, RuntimeException error, long nanos) {
+      this.tarea = tarea;
+      this.error = error;
+      this.nanos = nanos;
+    }
+
+    // Un Error (p. ej. StackOverflowError) también cuenta como falla de la tarea
+    static ResultadoTarea fallida(Tarea tarea, Throwable causa, long nanos) {
+      RuntimeException error = causa instanceof RuntimeException e
+          ? e
+          : new IllegalStateException("Error al ejecutar " + tarea.getNombre(), causa);
+      return new ResultadoTarea(tarea, error, nanos);
+    }
+
+    // Ejecuta la tarea en el hilo actual; una excepción cuenta como falla, no corta la ejecución
+    static ResultadoTarea ejecutar(Tarea tarea) {
+      if (!tarea.iniciar()) {
+        return new ResultadoTarea(tarea, new IllegalStateException("La tarea ya se está ejecutando"), 0);
+      }
+      long inicio = System.nanoTime();
+      boolean completada = false;
+      try {
+        tarea.ejecutar();
+        completada = true;
+      } catch (RuntimeException e) {
+        return new ResultadoTarea(tarea, e, System.nanoTime() - inicio);
+      } finally {
+        // También ante un Error: la tarea no puede quedar EJECUTANDO para siempre
+        if (completada) {
+          tarea.completar();
+        } else {
+          tarea.fallar();
+        }
+      }
+      return new ResultadoTarea(tarea, null, System.nanoTime() - inicio);
+    }
+
+    public Tarea getTarea() {
+      return tarea;
+    }
+
+    public boolean isExitosa() {
+      return error == null;
+    }
+
+    public RuntimeException getError() {
+      return error;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+  }
+
+  static class ResultadoEjecucion {
+    static final ResultadoEjecucion VACIO = new ResultadoEjecucion(List.of(), 0);
+
+    private final List<ResultadoTarea> resultados;
+    private final long nanos;
+
+    ResultadoEjecucion(List<ResultadoTarea> resultados, long nanos) {
+      this.resultados = Collections.unmodifiableList(resultados);
+      this.nanos = nanos;
+    }
+
+    // En el mismo orden en que se recibieron las tareas
+    public List<ResultadoTarea> getResultados() {
+      return resultados;
+    }
+
+    public long getExitosas() {
+      return resultados.stream().filter(ResultadoTarea::isExitosa).count();
+    }
+
+    public long getFallidas() {
+      return resultados.size() - getExitosas();
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("[RESULTADO] %d tareas: %d exitosas, %d fallidas en %.1f ms",
+          resultados.size(), getExitosas(), getFallidas(), nanos / 1_000_000.0);
+    }
+  }
+
   // ===================== ESTRATEGIAS DE EJECUCIÓN =====================
 
   interface EstrategiaEjecucion {
-    void ejecutar(List<Tarea> tareas);
+    ResultadoEjecucion ejecutar(List<Tarea> tareas);
+
+    // Dónde publicar TASK_STARTED / TASK_COMPLETED / TASK_FAILED; lo fija el gestor
+    default void setEventos(DespachadorEventos eventos) {
+    }
+
+    // Libera los hilos propios de la estrategia; después no se puede volver a ejecutar
+    default void cerrar() {
+    }
+
+    // Las estrategias que no entienden de dependencias no pueden respetarlas: antes que ignorarlas, fallan
+    default ResultadoEjecucion ejecutar(List<Tarea> tareas, GrafoDependencias dependencias) {
+      if (!dependencias.estaVacio()) {
+        throw new IllegalStateException(getClass().getSimpleName()
+            + " no respeta dependencias entre tareas; usar EjecucionDAG");
+      }
+      return ejecutar(tareas);
+    }
   }
 
-  static class EjecucionSecuencial implements EstrategiaEjecucion {
+  // Base de las estrategias: ejecuta cada tarea publicando sus eventos de inicio y fin
+  abstract static class EstrategiaConEventos implements EstrategiaEjecucion {
+    private volatile DespachadorEventos eventos; // null = sin eventos por tarea
+
     @Override
-    public void ejecutar(List<Tarea> tareas) {
+    public void setEventos(DespachadorEventos eventos) {
+      this.eventos = eventos;
+    }
+
+    protected void publicar(TaskEvent evento) {
+      DespachadorEventos despachador = eventos;
+      if (despachador != null) {
+        despachador.publicar(evento);
+      }
+    }
+
+    protected ResultadoTarea ejecutarTarea(Tarea tarea) {
+      publicar(TaskEvent.iniciada(tarea));
+      ResultadoTarea resultado = ResultadoTarea.ejecutar(tarea);
+      publicar(TaskEvent.terminada(resultado));
+      return resultado;
+    }
+  }
+
+  static class EjecucionSecuencial extends EstrategiaConEventos {
+    @Override
+    public ResultadoEjecucion ejecutar(List<Tarea> tareas) {
       System.out.println("[SECUENCIAL] Ejecutando tareas una por una");
+      long inicio = System.nanoTime();
+      List<ResultadoTarea> resultados = new ArrayList<>(tareas.size());
       for (Tarea tarea : tareas) {
-        tarea.ejecutar();
+        resultados.add(ejecutarTarea(tarea));
       }
+      return new ResultadoEjecucion(resultados, System.nanoTime() - inicio);
     }
   }
 
-  static class EjecucionParalela implements EstrategiaEjecucion {
+  /*  Ejecuta las tareas en un pool acotado (por defecto un hilo por núcleo)
+      en lugar de un hilo por tarea, y espera a cada una con su Future: el
+      método vuelve apenas termina la última, ni antes ni después. */
+  static class EjecucionParalela extends EstrategiaConEventos {
+    private final ExecutorService ejecutor;
+
+    public EjecucionParalela() {
+      this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EjecucionParalela(int hilos) {
+      this(Executors.newFixedThreadPool(hilos, r -> {
+        Thread hilo = new Thread(r, "tarea-paralela");
+        hilo.setDaemon(true);
+        return hilo;
+      }));
+    }
+
+    // Cualquier ejecutor, p. ej. Executors.newVirtualThreadPerTaskExecutor() en Java 21+
+    public EjecucionParalela(ExecutorService ejecutor) {
+      this.ejecutor = ejecutor;
+    }
+
     @Override
-    public void ejecutar(List<Tarea> tareas) {
-      System.out.println("[PARALELO] Ejecutando todas las tareas simultáneamente");
+    public ResultadoEjecucion ejecutar(List<Tarea> tareas) {
+      System.out.println("[PARALELO] Ejecutando tareas en un pool de hilos");
+      long inicio = System.nanoTime();
+      List<Future<ResultadoTarea>> pendientes = new ArrayList<>(tareas.size());
       for (Tarea tarea : tareas) {
-        new Thread(() -> tarea.ejecutar()).start();
+        pendientes.add(ejecutor.submit(() -> ejecutarTarea(tarea)));
       }
-      
-      // Esperar un poco para que terminen
+
+      List<ResultadoTarea> resultados = new ArrayList<>(tareas.size());
+      for (int i = 0; i < pendientes.size(); i++) {
+        resultados.add(esperar(pendientes.get(i), tareas.get(i)));
+      }
+      return new ResultadoEjecucion(resultados, System.nanoTime() - inicio);
+    }
+
+    private ResultadoTarea esperar(Future<ResultadoTarea> pendiente, Tarea tarea) {
       try {
-        Thread.sleep(200);
+        return pendiente.get();
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
+        throw new IllegalStateException("Ejecución interrumpida", e);
+      } catch (ExecutionException e) {
+        // ResultadoTarea.ejecutar ya atrapa las RuntimeException; acá solo llegan Error
+        ResultadoTarea resultado = new ResultadoTarea(tarea, new IllegalStateException(e.getCause()), 0);
+        publicar(TaskEvent.terminada(resultado));
+        return resultado;
       }
     }
+
+    @Override
+    public void cerrar() {
+      ejecutor.shutdown();
+    }
   }
 
-  static class EjecucionPorPrioridad implements EstrategiaEjecucion {
+  /*  N trabajadores sacan tareas de una cola de prioridad compartida, y
+      mientras ejecutar está en curso se pueden sumar tareas con enviar.
+      Envejecimiento: cada envejecimientoMillis de espera una tarea gana un
+      nivel de prioridad, así una BAJA no queda relegada para siempre detrás
+      de un flujo constante de CRITICA. Ordenar por prioridad efectiva
+      (valor + espera / intervalo) equivale a ordenar por
+      encolada - valor * intervalo, que no cambia con el tiempo, por eso
+      alcanza con una PriorityBlockingQueue común.
+      Los trabajadores arrancan con la primera ejecución y se detienen con
+      cerrar. */
+  static class EjecucionPorPrioridad extends EstrategiaConEventos {
+    private final PriorityBlockingQueue<Entrada> cola = new PriorityBlockingQueue<>();
+    private final AtomicLong secuencia = new AtomicLong();
+    private final int cantidadTrabajadores;
+    private final long envejecimientoNanos;
+    private final MetricasPrioridad metricas = new MetricasPrioridad();
+    private final List<Thread> trabajadores = new ArrayList<>();
+    private boolean cerrada;
+    private volatile Ronda rondaActual;
+
+    public EjecucionPorPrioridad() {
+      this(Runtime.getRuntime().availableProcessors(), 1000);
+    }
+
+    public EjecucionPorPrioridad(int cantidadTrabajadores, long envejecimientoMillis) {
+      this.cantidadTrabajadores = cantidadTrabajadores;
+      this.envejecimientoNanos = TimeUnit.MILLISECONDS.toNanos(envejecimientoMillis);
+    }
+
+    private synchronized void iniciarTrabajadores() {
+      if (cerrada) {
+        throw new IllegalStateException("La estrategia está cerrada");
+      }
+      if (!trabajadores.isEmpty()) {
+        return;
+      }
+      for (int i = 0; i < cantidadTrabajadores; i++) {
+        Thread trabajador = new Thread(this::trabajar, "prioridad-" + i);
+        trabajador.setDaemon(true);
+        trabajador.start();
+        trabajadores.add(trabajador);
+      }
+    }
+
     @Override
-    public void ejecutar(List<Tarea> tareas) {
+    public ResultadoEjecucion ejecutar(List<Tarea> tareas) {
       System.out.println("[POR PRIORIDAD] Ejecutando tareas ordenadas por prioridad");
-      List<Tarea> tareasOrdenadas = new ArrayList<>(tareas);
-      tareasOrdenadas.sort((t1, t2) -> Integer.compare(t2.getPrioridad().getValor(), t1.getPrioridad().getValor()));
-      
-      for (Tarea tarea : tareasOrdenadas) {
-        tarea.ejecutar();
+      long inicio = System.nanoTime();
+      iniciarTrabajadores();
+      Ronda ronda = new Ronda();
+      rondaActual = ronda;
+      try {
+        for (Tarea tarea : tareas) {
+          encolar(ronda, ronda.sumar(), tarea);
+        }
+        ronda.esperar();
+      } finally {
+        rondaActual = null;
+      }
+      return new ResultadoEjecucion(ronda.getResultados(), System.nanoTime() - inicio);
+    }
+
+    /*  Suma una tarea a la ejecución en curso; su resultado sale en el de
+        ejecutar. Si la ronda se cerró entre leerla y sumar la tarea, se
+        rechaza igual que si no hubiera ejecución. */
+    public void enviar(Tarea tarea) {
+      Ronda ronda = rondaActual;
+      int indice = ronda != null ? ronda.sumar() : -1;
+      if (indice < 0) {
+        throw new IllegalStateException("No hay una ejecución en curso: usar ejecutar");
+      }
+      publicar(TaskEvent.encolada(tarea));
+      encolar(ronda, indice, tarea);
+    }
+
+    public MetricasPrioridad getMetricas() {
+      return metricas;
+    }
+
+    @Override
+    public synchronized void cerrar() {
+      cerrada = true;
+      for (Thread trabajador : trabajadores) {
+        trabajador.interrupt();
+      }
+    }
+
+    private void encolar(Ronda ronda, int indice, Tarea tarea) {
+      long ahora = System.nanoTime();
+      long clave = ahora - tarea.getPrioridad().getValor() * envejecimientoNanos;
+      cola.put(new Entrada(tarea, ronda, indice, ahora, clave, secuencia.getAndIncrement()));
+    }
+
+    private void trabajar() {
+      while (!Thread.currentThread().isInterrupted()) {
+        Entrada entrada;
+        try {
+          entrada = cola.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        long espera = System.nanoTime() - entrada.encolada;
+        ResultadoTarea resultado;
+        try {
+          resultado = ejecutarTarea(entrada.tarea);
+        } catch (Throwable t) {
+          // Un Error no puede matar al trabajador: la ronda quedaría esperando para siempre
+          resultado = ResultadoTarea.fallida(entrada.tarea, t, 0);
+        }
+        metricas.registrar(entrada.tarea.getPrioridad(), espera, resultado.getNanos());
+        entrada.ronda.terminar(entrada.indice, resultado);
+      }
+    }
+
+    private static final class Entrada implements Comparable<Entrada> {
+      final Tarea tarea;
+      final Ronda ronda;
+      final int indice; // posición del resultado en la ronda
+      final long encolada;
+      final long clave; // menor = antes
+      final long orden; // desempate FIFO
+
+      Entrada(Tarea tarea, Ronda ronda, int indice, long encolada, long clave, long orden) {
+        this.tarea = tarea;
+        this.ronda = ronda;
+        this.indice = indice;
+        this.encolada = encolada;
+        this.clave = clave;
+        this.orden = orden;
+      }
+
+      @Override
+      public int compareTo(Entrada otra) {
+        // Resta y no Long.compare: los nanoTime pueden ser negativos y solo importa la diferencia
+        long diferencia = clave - otra.clave;
+        return diferencia != 0 ? (diferencia < 0 ? -1 : 1) : Long.compare(orden, otra.orden);
+      }
+    }
+
+    // Las tareas de una llamada a ejecutar (más las enviadas durante ella)
+    private static final class Ronda {
+      private final ReentrantLock lock = new ReentrantLock();
+      private final Condition terminada = lock.newCondition();
+      private final List<ResultadoTarea> resultados = new ArrayList<>();
+      private int pendientes;
+      private boolean cerrada; // ya no acepta tareas: esperar terminó
+
+      /*  Reserva el lugar del resultado: salen en el orden en que se
+          recibieron las tareas. Devuelve -1 si la ronda ya se cerró. */
+      int sumar() {
+        lock.lock();
+        try {
+          if (cerrada) {
+            return -1;
+          }
+          pendientes++;
+          resultados.add(null);
+          return resultados.size() - 1;
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      void terminar(int indice, ResultadoTarea resultado) {
+        lock.lock();
+        try {
+          resultados.set(indice, resultado);
+          if (--pendientes == 0) {
+            terminada.signalAll();
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      void esperar() {
+        lock.lock();
+        try {
+          while (pendientes > 0) {
+            terminada.await();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Ejecución interrumpida", e);
+        } finally {
+          cerrada = true; // bajo el lock: ningún sumar posterior deja un lugar sin resultado
+          lock.unlock();
+        }
+      }
+
+      List<ResultadoTarea> getResultados() {
+        lock.lock();
+        try {
+          return new ArrayList<>(resultados);
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+
+  /*  Minimiza el tiempo total (makespan) con tiempoEstimado: LPT reparte
+      las tareas de mayor a menor duración (a igual duración, mayor
+      prioridad primero), cada una al trabajador con menos carga prevista.
+      Como las estimaciones fallan, un trabajador que vacía su cola le roba
+      al más cargado la tarea más corta del final de la suya. Al terminar
+      informa el makespan previsto y el real, y cuántos ms reales valió cada
+      minuto estimado, para calibrar la próxima previsión. */
+  static class EjecucionPorMakespan extends EstrategiaConEventos {
+    private static final Comparator<Tarea> LPT = Comparator
+        .comparingInt(Tarea::getTiempoEstimado).reversed()
+        .thenComparing(Comparator.comparingInt((Tarea t) -> t.getPrioridad().getValor()).reversed());
+
+    private final int cantidadTrabajadores;
+    private final ExecutorService ejecutor;
+    private volatile double millisPorMinuto = Double.NaN; // NaN = todavía sin calibrar
+    private long makespanPrevisto; // en minutos estimados
+    private long makespanRealNanos;
+    private int robos;
+
+    public EjecucionPorMakespan() {
+      this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EjecucionPorMakespan(int cantidadTrabajadores) {
+      this.cantidadTrabajadores = cantidadTrabajadores;
+      this.ejecutor = Executors.newFixedThreadPool(cantidadTrabajadores, r -> {
+        Thread hilo = new Thread(r, "tarea-makespan");
+        hilo.setDaemon(true);
+        return hilo;
+      });
+    }
+
+    @Override
+    public ResultadoEjecucion ejecutar(List<Tarea> tareas) {
+      System.out.println("[MAKESPAN] Repartiendo tareas por tiempo estimado (LPT)");
+      long inicio = System.nanoTime();
+
+      List<Integer> orden = new ArrayList<>(tareas.size());
+      for (int i = 0; i < tareas.size(); i++) {
+        orden.add(i);
+      }
+      orden.sort((a, b) -> LPT.compare(tareas.get(a), tareas.get(b)));
+
+      // Cada tarea al trabajador con menor carga prevista hasta ahora
+      List<ConcurrentLinkedDeque<Integer>> colas = new ArrayList<>(cantidadTrabajadores);
+      long[] carga = new long[cantidadTrabajadores];
+      PriorityQueue<Integer> menosCargado = new PriorityQueue<>(
+          Comparator.comparingLong((Integer w) -> carga[w]).thenComparingInt(w -> w));
+      for (int w = 0; w < cantidadTrabajadores; w++) {
+        colas.add(new ConcurrentLinkedDeque<>());
+        menosCargado.add(w);
+      }
+      for (int indice : orden) {
+        int w = menosCargado.poll();
+        colas.get(w).addLast(indice);
+        carga[w] += tareas.get(indice).getTiempoEstimado();
+        menosCargado.add(w);
+      }
+      long previsto = Arrays.stream(carga).max().orElse(0);
+
+      ResultadoTarea[] resultados = new ResultadoTarea[tareas.size()];
+      LongAdder robados = new LongAdder();
+      List<Future<?>> trabajadores = new ArrayList<>(cantidadTrabajadores);
+      for (int w = 0; w < cantidadTrabajadores; w++) {
+        int propio = w;
+        trabajadores.add(ejecutor.submit(() -> trabajar(propio, colas, tareas, resultados, robados)));
+      }
+      for (Future<?> trabajador : trabajadores) {
+        esperar(trabajador);
+      }
+
+      long real = System.nanoTime() - inicio;
+      reportar(previsto, real, robados.intValue());
+      return new ResultadoEjecucion(Arrays.asList(resultados), real);
+    }
+
+    private void trabajar(int propio, List<ConcurrentLinkedDeque<Integer>> colas, List<Tarea> tareas,
+                          ResultadoTarea[] resultados, LongAdder robados) {
+      while (true) {
+        Integer indice = colas.get(propio).pollFirst();
+        if (indice == null) {
+          indice = robar(propio, colas);
+          if (indice == null) {
+            return;
+          }
+          robados.increment();
+        }
+        try {
+          resultados[indice] = ejecutarTarea(tareas.get(indice));
+        } catch (Throwable t) {
+          // Un Error cuenta como falla de esa tarea; el trabajador sigue con las demás
+          resultados[indice] = ResultadoTarea.fallida(tareas.get(indice), t, 0);
+        }
+      }
+    }
+
+    // La más corta (el final) de la cola con más tareas pendientes
+    private static Integer robar(int propio, List<ConcurrentLinkedDeque<Integer>> colas) {
+      while (true) {
+        ConcurrentLinkedDeque<Integer> victima = null;
+        int mayor = 0;
+        for (int w = 0; w < colas.size(); w++) {
+          int tamaño = colas.get(w).size();
+          if (w != propio && tamaño > mayor) {
+            victima = colas.get(w);
+            mayor = tamaño;
+          }
+        }
+        if (victima == null) {
+          return null;
+        }
+        Integer indice = victima.pollLast();
+        if (indice != null) {
+          return indice;
+        }
+        // Otro se la llevó antes: se vuelve a elegir víctima
+      }
+    }
+
+    private void esperar(Future<?> trabajador) {
+      try {
+        trabajador.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Ejecución interrumpida", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Falló un trabajador", e.getCause());
+      }
+    }
+
+    private synchronized void reportar(long previsto, long realNanos, int robos) {
+      double realMillis = realNanos / 1_000_000.0;
+      double calibracionAnterior = millisPorMinuto;
+      this.makespanPrevisto = previsto;
+      this.makespanRealNanos = realNanos;
+      this.robos = robos;
+      if (previsto > 0) {
+        millisPorMinuto = realMillis / previsto;
+      }
+      String previstoMillis = Double.isNaN(calibracionAnterior)
+          ? "sin calibrar"
+          : String.format("%.1f ms", previsto * calibracionAnterior);
+      System.out.printf("[MAKESPAN] previsto %d min (%s), real %.1f ms, %d robos, %.3f ms por minuto estimado%n",
+          previsto, previstoMillis, realMillis, robos, millisPorMinuto);
+    }
+
+    public synchronized long getMakespanPrevisto() {
+      return makespanPrevisto;
+    }
+
+    public synchronized long getMakespanRealNanos() {
+      return makespanRealNanos;
+    }
+
+    public synchronized int getRobos() {
+      return robos;
+    }
+
+    // Cuántos ms reales valió un minuto estimado en la última ejecución (NaN si no hubo)
+    public double getMillisPorMinuto() {
+      return millisPorMinuto;
+    }
+
+    @Override
+    public void cerrar() {
+      ejecutor.shutdown();
+    }
+  }
+
+  // ===================== DEPENDENCIAS =====================
+
+  // Qué tareas tiene que esperar cada tarea. Nunca tiene ciclos: agregar los rechaza.
+  static class GrafoDependencias {
+    private final Map<Tarea, Set<Tarea>> dependencias = new HashMap<>();
+
+    synchronized void agregar(Tarea tarea, Collection<Tarea> dependeDe) {
+      for (Tarea dependencia : dependeDe) {
+        // Si la dependencia ya depende (directa o indirectamente) de tarea, se cerraría un ciclo
+        if (dependencia == tarea || depende(dependencia, tarea)) {
+          throw new IllegalArgumentException("Dependencia circular: " + tarea.getNombre()
+              + " no puede depender de " + dependencia.getNombre());
+        }
+      }
+      if (!dependeDe.isEmpty()) {
+        dependencias.computeIfAbsent(tarea, t -> new LinkedHashSet<>()).addAll(dependeDe);
+      }
+    }
+
+    // ¿desde depende, directa o indirectamente, de hasta?
+    private boolean depende(Tarea desde, Tarea hasta) {
+      Deque<Tarea> pendientes = new ArrayDeque<>();
+      Set<Tarea> visitadas = new HashSet<>();
+      pendientes.push(desde);
+      while (!pendientes.isEmpty()) {
+        for (Tarea dependencia : dependencias.getOrDefault(pendientes.pop(), Set.of())) {
+          if (dependencia == hasta) {
+            return true;
+          }
+          if (visitadas.add(dependencia)) {
+            pendientes.push(dependencia);
+          }
+        }
+      }
+      return false;
+    }
+
+    synchronized boolean estaVacio() {
+      return dependencias.isEmpty();
+    }
+
+    synchronized Set<Tarea> getDependencias(Tarea tarea) {
+      return new LinkedHashSet<>(dependencias.getOrDefault(tarea, Set.of()));
+    }
+  }
+
+  enum PoliticaFallo {
+    FALLAR_RAPIDO, // ante la primera falla no se empieza ninguna tarea más
+    CONTINUAR      // solo se omiten las tareas que dependen de la que falló
+  }
+
+  /*  Ejecuta el grafo de dependencias en un pool: cada tarea sale apenas
+      terminan todas las que necesita. Entre las tareas listas va primero la
+      de camino crítico más largo (su tiempoEstimado más el de la cadena de
+      tareas que la esperan), que es la que más puede alargar el total. */
+  static class EjecucionDAG extends EstrategiaConEventos {
+    private static final int PENDIENTE = 0, EJECUTANDO = 1, TERMINADA = 2;
+
+    private final PoliticaFallo politica;
+    private final ThreadPoolExecutor ejecutor;
+
+    public EjecucionDAG(PoliticaFallo politica) {
+      this(Runtime.getRuntime().availableProcessors(), politica);
+    }
+
+    public EjecucionDAG(int cantidadTrabajadores, PoliticaFallo politica) {
+      this.politica = politica;
+      // Cola de prioridad: el pool toma siempre el Nodo listo de mayor camino crítico
+      this.ejecutor = new ThreadPoolExecutor(cantidadTrabajadores, cantidadTrabajadores, 0, TimeUnit.MILLISECONDS,
+          new PriorityBlockingQueue<>(), r -> {
+            Thread hilo = new Thread(r, "tarea-dag");
+            hilo.setDaemon(true);
+            return hilo;
+          });
+    }
+
+    @Override
+    public ResultadoEjecucion ejecutar(List<Tarea> tareas) {
+      return ejecutar(tareas, new GrafoDependencias());
+    }
+
+    @Override
+    public ResultadoEjecucion ejecutar(List<Tarea> tareas, GrafoDependencias dependencias) {
+      System.out.println("[DAG] Ejecutando tareas según sus dependencias (" + politica + ")");
+      long inicio = System.nanoTime();
+      Ejecucion ejecucion = new Ejecucion(tareas, dependencias);
+      ejecucion.iniciar();
+      ejecucion.esperar();
+      return new ResultadoEjecucion(Arrays.asList(ejecucion.resultados), System.nanoTime() - inicio);
+    }
+
+    @Override
+    public void cerrar() {
+      ejecutor.shutdown();
+    }
+
+    // Estado de una llamada a ejecutar
+    private final class Ejecucion {
+      final Nodo[] nodos;
+      final ResultadoTarea[] resultados;
+      final CountDownLatch terminadas;
+      volatile boolean abortada;
+
+      Ejecucion(List<Tarea> tareas, GrafoDependencias dependencias) {
+        Map<Tarea, Nodo> porTarea = new HashMap<>();
+        nodos = new Nodo[tareas.size()];
+        for (int i = 0; i < nodos.length; i++) {
+          nodos[i] = new Nodo(this, i, tareas.get(i));
+          porTarea.put(tareas.get(i), nodos[i]);
+        }
+        // Solo cuentan las dependencias que están en la lista
+        for (Nodo nodo : nodos) {
+          for (Tarea dependencia : dependencias.getDependencias(nodo.tarea)) {
+            Nodo previo = porTarea.get(dependencia);
+            if (previo != null) {
+              previo.siguientes.add(nodo);
+              nodo.faltan.incrementAndGet();
+            }
+          }
+        }
+        calcularCaminoCritico();
+        resultados = new ResultadoTarea[nodos.length];
+        terminadas = new CountDownLatch(nodos.length);
       }
+
+      // En orden topológico inverso: cada nodo suma el mayor camino de los que lo esperan
+      private void calcularCaminoCritico() {
+        int[] entrantes = new int[nodos.length];
+        for (Nodo nodo : nodos) {
+          entrantes[nodo.indice] = nodo.faltan.get();
+        }
+        Deque<Nodo> listos = new ArrayDeque<>();
+        for (Nodo nodo : nodos) {
+          if (entrantes[nodo.indice] == 0) {
+            listos.add(nodo);
+          }
+        }
+        List<Nodo> topologico = new ArrayList<>(nodos.length);
+        while (!listos.isEmpty()) {
+          Nodo nodo = listos.poll();
+          topologico.add(nodo);
+          for (Nodo siguiente : nodo.siguientes) {
+            if (--entrantes[siguiente.indice] == 0) {
+              listos.add(siguiente);
+            }
+          }
+        }
+        for (int i = topologico.size() - 1; i >= 0; i--) {
+          Nodo nodo = topologico.get(i);
+          long mayor = 0;
+          for (Nodo siguiente : nodo.siguientes) {
+            mayor = Math.max(mayor, siguiente.caminoCritico);
+          }
+          nodo.caminoCritico = nodo.tarea.getTiempoEstimado() + mayor;
+        }
+      }
+
+      ResultadoTarea ejecutarTarea(Tarea tarea) {
+        return EjecucionDAG.this.ejecutarTarea(tarea);
+      }
+
+      void iniciar() {
+        for (Nodo nodo : nodos) {
+          if (nodo.faltan.get() == 0) {
+            ejecutor.execute(nodo);
+          }
+        }
+      }
+
+      void esperar() {
+        try {
+          terminadas.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Ejecución interrumpida", e);
+        }
+      }
+
+      void terminar(Nodo nodo, ResultadoTarea resultado) {
+        resultados[nodo.indice] = resultado;
+        terminadas.countDown();
+        if (resultado.isExitosa()) {
+          for (Nodo siguiente : nodo.siguientes) {
+            if (siguiente.faltan.decrementAndGet() == 0) {
+              ejecutor.execute(siguiente);
+            }
+          }
+        } else if (politica == PoliticaFallo.FALLAR_RAPIDO) {
+          abortada = true;
+          for (Nodo otro : nodos) {
+            omitir(otro, "Cancelada: falló " + nodo.tarea.getNombre());
+          }
+        } else {
+          omitirSiguientes(nodo, "Omitida: falló la dependencia " + nodo.tarea.getNombre());
+        }
+      }
+
+      // Con una lista de pendientes y no con recursión: una cadena larga no desborda la pila
+      private void omitirSiguientes(Nodo nodo, String motivo) {
+        Deque<Nodo> pendientes = new ArrayDeque<>(nodo.siguientes);
+        while (!pendientes.isEmpty()) {
+          Nodo siguiente = pendientes.pop();
+          if (omitir(siguiente, motivo)) {
+            pendientes.addAll(siguiente.siguientes);
+          }
+        }
+      }
+
+      // Solo gana quien pasa el nodo de PENDIENTE a TERMINADA, así cada nodo se cuenta una vez
+      boolean omitir(Nodo nodo, String motivo) {
+        if (!nodo.estado.compareAndSet(PENDIENTE, TERMINADA)) {
+          return false;
+        }
+        ResultadoTarea omitida = new ResultadoTarea(nodo.tarea, new IllegalStateException(motivo), 0);
+        resultados[nodo.indice] = omitida;
+        publicar(TaskEvent.terminada(omitida));
+        terminadas.countDown();
+        return true;
+      }
+    }
+
+    private static final class Nodo implements Runnable, Comparable<Nodo> {
+      final Ejecucion ejecucion;
+      final int indice;
+      final Tarea tarea;
+      final List<Nodo> siguientes = new ArrayList<>();
+      final AtomicInteger faltan = new AtomicInteger(); // dependencias sin terminar
+      final AtomicInteger estado = new AtomicInteger(PENDIENTE);
+      long caminoCritico;
+
+      Nodo(Ejecucion ejecucion, int indice, Tarea tarea) {
+        this.ejecucion = ejecucion;
+        this.indice = indice;
+        this.tarea = tarea;
+      }
+
+      @Override
+      public void run() {
+        if (ejecucion.abortada || !estado.compareAndSet(PENDIENTE, EJECUTANDO)) {
+          return; // cancelada mientras esperaba en la cola
+        }
+        ResultadoTarea resultado;
+        Error error = null;
+        try {
+          resultado = ejecucion.ejecutarTarea(tarea);
+        } catch (Throwable t) {
+          // Si no se registra, el nodo nunca termina y esperar() queda bloqueado para siempre
+          resultado = ResultadoTarea.fallida(tarea, t, 0);
+          error = t instanceof Error e ? e : null;
+        }
+        estado.set(TERMINADA);
+        ejecucion.terminar(this, resultado);
+        if (error != null) {
+          throw error; // ya registrado; el pool reemplaza al hilo
+        }
+      }
+
+      // Mayor camino crítico primero; a igual camino, mayor prioridad
+      @Override
+      public int compareTo(Nodo otro) {
+        int porCamino = Long.compare(otro.caminoCritico, caminoCritico);
+        return porCamino != 0
+            ? porCamino
+            : Integer.compare(otro.tarea.getPrioridad().getValor(), tarea.getPrioridad().getValor());
+      }
+    }
+  }
+
+  // Espera en cola y tiempo de ejecución acumulados por prioridad
+  static class MetricasPrioridad {
+    private final Map<Prioridad, Estadistica> porPrioridad = new EnumMap<>(Prioridad.class);
+
+    MetricasPrioridad() {
+      for (Prioridad prioridad : Prioridad.values()) {
+        porPrioridad.put(prioridad, new Estadistica());
+      }
+    }
+
+    void registrar(Prioridad prioridad, long esperaNanos, long ejecucionNanos) {
+      Estadistica estadistica = porPrioridad.get(prioridad);
+      estadistica.cantidad.increment();
+      estadistica.espera.add(esperaNanos);
+      estadistica.esperaMaxima.accumulate(esperaNanos);
+      estadistica.ejecucion.add(ejecucionNanos);
+    }
+
+    public long getCantidad(Prioridad prioridad) {
+      return porPrioridad.get(prioridad).cantidad.sum();
+    }
+
+    public double getEsperaPromedioMillis(Prioridad prioridad) {
+      Estadistica estadistica = porPrioridad.get(prioridad);
+      long cantidad = estadistica.cantidad.sum();
+      return cantidad > 0 ? estadistica.espera.sum() / (cantidad * 1_000_000.0) : 0;
+    }
+
+    public double getEsperaMaximaMillis(Prioridad prioridad) {
+      return porPrioridad.get(prioridad).esperaMaxima.get() / 1_000_000.0;
+    }
+
+    public double getEjecucionPromedioMillis(Prioridad prioridad) {
+      Estadistica estadistica = porPrioridad.get(prioridad);
+      long cantidad = estadistica.cantidad.sum();
+      return cantidad > 0 ? estadistica.ejecucion.sum() / (cantidad * 1_000_000.0) : 0;
+    }
+
+    public void imprimir() {
+      for (Prioridad prioridad : Prioridad.values()) {
+        if (getCantidad(prioridad) > 0) {
+          System.out.printf("[PRIORIDAD] %s: %d tareas, espera promedio %.1f ms (máx. %.1f ms), ejecución promedio %.1f ms%n",
+              prioridad, getCantidad(prioridad), getEsperaPromedioMillis(prioridad),
+              getEsperaMaximaMillis(prioridad), getEjecucionPromedioMillis(prioridad));
+        }
+      }
+    }
+
+    private static final class Estadistica {
+      final LongAdder cantidad = new LongAdder();
+      final LongAdder espera = new LongAdder();
+      final LongAccumulator esperaMaxima = new LongAccumulator(Math::max, 0);
+      final LongAdder ejecucion = new LongAdder();
     }
   }
 